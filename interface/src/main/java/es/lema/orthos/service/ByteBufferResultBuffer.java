@@ -0,0 +1,46 @@
+package es.lema.orthos.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ResultBuffer} over a {@link ByteBuffer}, e.g. a heap buffer to write and read
+ * {@link SharedResult}s on the JVM, in unit tests and benchmarks.
+ */
+public final class ByteBufferResultBuffer extends ResultBuffer {
+    private final ByteBuffer buffer;
+
+    public ByteBufferResultBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public static ByteBufferResultBuffer allocate(int capacity) {
+        return new ByteBufferResultBuffer(ByteBuffer.allocate(capacity));
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public void write(int position, byte[] src, int srcOffset, int length) throws IOException {
+        checkBounds(position, length);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.put(src, srcOffset, length);
+    }
+
+    @Override
+    public void read(int position, byte[] dst, int dstOffset, int length) throws IOException {
+        checkBounds(position, length);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(dst, dstOffset, length);
+    }
+
+    @Override
+    public void close() {
+        // Released with the buffer
+    }
+}
@@ -0,0 +1,362 @@
+package es.lema.orthos.service;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact wire format of a {@link WordList}, parceled as a single byte array.
+ *
+ * Every word is encoded, in order, as:
+ * - the number of leading characters its form shares with the previous form, as a varint,
+ * - the rest of the form as a varint byte length followed by its UTF-8 bytes,
+ * - its lemma: a varint tag, {@link #LEMMA_FORM} when it is equal to the form,
+ *   {@link #LEMMA_PREVIOUS} when it is equal to the previous lemma, or {@link #LEMMA_LITERAL}
+ *   followed by its length and UTF-8 bytes,
+ * - its category as a zigzag varint, so that any int round-trips and small negative values
+ *   take a single byte.
+ * The data starts with the number of words as a varint.
+ *
+ * Readers that only need the forms iterate {@link #forms()}, which decodes them lazily and
+ * skips the lemmas without creating any {@link Word}, readers of the lemmas use a
+ * {@link Visitor}.
+ *
+ * The bytes come from another process, so their structure is checked once, without decoding
+ * any string, when they are wrapped: truncated or malformed data is rejected with an
+ * {@link IllegalArgumentException}. Only a shared prefix longer than the previous form is
+ * detected later, when the form is decoded, with the same exception.
+ */
+public final class CompactWordList implements Parcelable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int LEMMA_FORM = 0;
+    static final int LEMMA_PREVIOUS = 1;
+    static final int LEMMA_LITERAL = 2;
+
+    // Bytes of the smallest encoded word: shared prefix, length, lemma tag and category
+    private static final int MIN_WORD_SIZE = 4;
+
+    /**
+     * Receives the fields of every word without creating the word
+     */
+    public interface Visitor {
+        void visit(String form, String lemma, int category);
+    }
+
+    private final byte[] data;
+    private final int size;
+
+    private CompactWordList(byte[] data) {
+        this.data = data;
+        this.size = validate(data);
+    }
+
+    /*
+     * Wrap bytes produced by getEncoded(), e.g. read back from a SharedResult
+     * @throws IllegalArgumentException if they are not encoded words
+     */
+    static CompactWordList fromEncoded(byte[] data) {
+        return new CompactWordList(data);
+    }
+
+    byte[] getEncoded() {
+        return data;
+    }
+
+    /**
+     * Encode the words, used by the service before sending them
+     */
+    public static CompactWordList encode(List<Word> words) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, words.size());
+        String previousForm = "";
+        String previousLemma = null;
+        for (Word word : words) {
+            final String form = word.getForm();
+            final String lemma = word.getLemma();
+            final int shared = sharedPrefix(previousForm, form);
+            writeVarint(out, shared);
+            writeString(out, form.substring(shared));
+            if (lemma == null || lemma.equals(form)) {
+                writeVarint(out, LEMMA_FORM);
+            } else if (lemma.equals(previousLemma)) {
+                writeVarint(out, LEMMA_PREVIOUS);
+            } else {
+                writeVarint(out, LEMMA_LITERAL);
+                writeString(out, lemma);
+            }
+            writeCategory(out, word.getCategory());
+            previousForm = form;
+            previousLemma = lemma == null ? form : lemma;
+        }
+        return new CompactWordList(out.toByteArray());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Size of the encoded words in bytes
+     */
+    public int getEncodedSize() {
+        return data.length;
+    }
+
+    /**
+     * The forms in order, decoded as they are iterated
+     */
+    public Iterable<String> forms() {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new FormIterator();
+            }
+        };
+    }
+
+    /**
+     * Decode every word in order, for readers that need the lemmas or categories
+     */
+    public void accept(Visitor visitor) {
+        final Reader reader = new Reader(data);
+        final int count = reader.readVarint();
+        String form = "";
+        String lemma = null;
+        for (int i = 0; i < count; i++) {
+            form = reader.readForm(form);
+            final int tag = reader.readVarint();
+            if (tag == LEMMA_FORM) {
+                lemma = form;
+            } else if (tag == LEMMA_LITERAL) {
+                lemma = reader.readString();
+            }
+            visitor.visit(form, lemma, reader.readCategory());
+        }
+    }
+
+    /**
+     * Decode every word into a word list
+     */
+    public WordList toWordList() {
+        final WordList words = new WordList();
+        accept(new Visitor() {
+            @Override
+            public void visit(String form, String lemma, int category) {
+                words.add(lemma, form, category);
+            }
+        });
+        return words;
+    }
+
+    /*
+     * Check that the bytes hold the number of words they announce, every field within bounds
+     * and no byte left, returns the number of words
+     */
+    private static int validate(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("No encoded words");
+        }
+        final Reader reader = new Reader(data);
+        final int count = reader.readVarint();
+        if (count > (data.length - reader.position) / MIN_WORD_SIZE) {
+            throw new IllegalArgumentException(
+                    "Too many words for " + data.length + " bytes: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (reader.readVarint() != 0 && i == 0) {
+                throw new IllegalArgumentException("Shared prefix without a previous form");
+            }
+            reader.skipString();
+            final int tag = reader.readVarint();
+            if (tag == LEMMA_LITERAL) {
+                reader.skipString();
+            } else if (tag != LEMMA_FORM && (tag != LEMMA_PREVIOUS || i == 0)) {
+                throw new IllegalArgumentException("Invalid lemma of word " + i + ": " + tag);
+            }
+            reader.readCategory();
+        }
+        if (reader.position != data.length) {
+            throw new IllegalArgumentException(
+                    "Bytes left after " + count + " words: " + (data.length - reader.position));
+        }
+        return count;
+    }
+
+    private final class FormIterator implements Iterator<String> {
+        private final Reader reader = new Reader(data);
+        private final int count = reader.readVarint();
+        private int index = 0;
+        private String form = "";
+
+        @Override
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        @Override
+        public String next() {
+            if (index >= count) {
+                throw new NoSuchElementException();
+            }
+            form = reader.readForm(form);
+            if (reader.readVarint() == LEMMA_LITERAL) {
+                reader.skipString();
+            }
+            reader.readCategory();
+            index++;
+            return form;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        /*
+         * A non-negative int, at most 5 bytes
+         */
+        int readVarint() {
+            final int value = readUnsignedVarint();
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative varint at " + position);
+            }
+            return value;
+        }
+
+        /*
+         * Any int, zigzag encoded
+         */
+        int readCategory() {
+            final int value = readUnsignedVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /*
+         * The 32 bits of an int, at most 5 bytes
+         */
+        private int readUnsignedVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= data.length) {
+                    throw new IllegalArgumentException("Truncated at " + position);
+                }
+                if (shift > 28) {
+                    throw new IllegalArgumentException("Varint too long at " + position);
+                }
+                b = data[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readString() {
+            final int length = readLength();
+            final String value = new String(data, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skipString() {
+            final int length = readLength();
+            position += length;
+        }
+
+        /*
+         * Byte length of a string, within the data left
+         */
+        private int readLength() {
+            final int length = readVarint();
+            if (length > data.length - position) {
+                throw new IllegalArgumentException("String of " + length + " bytes at " + position);
+            }
+            return length;
+        }
+
+        String readForm(String previous) {
+            final int shared = readVarint();
+            if (shared > previous.length()) {
+                // Only known once the previous form is decoded
+                throw new IllegalArgumentException("Shared prefix longer than " + previous);
+            }
+            final String suffix = readString();
+            return shared == 0 ? suffix : previous.substring(0, shared).concat(suffix);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeCategory(ByteArrayOutputStream out, int category) {
+        writeVarint(out, (category << 1) ^ (category >> 31));
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /*
+     * Characters shared by both strings, never splitting a surrogate pair
+     */
+    private static int sharedPrefix(String a, String b) {
+        final int max = Math.min(a.length(), b.length());
+        int shared = 0;
+        while (shared < max && a.charAt(shared) == b.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(a.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(data);
+    }
+
+    public static final Parcelable.Creator<CompactWordList> CREATOR =
+            new Parcelable.Creator<CompactWordList>() {
+        /*
+         * @throws IllegalArgumentException if the parcel does not hold encoded words
+         */
+        @Override
+        public CompactWordList createFromParcel(Parcel source) {
+            return new CompactWordList(source.createByteArray());
+        }
+
+        @Override
+        public CompactWordList[] newArray(int size) {
+            return new CompactWordList[size];
+        }
+    };
+}
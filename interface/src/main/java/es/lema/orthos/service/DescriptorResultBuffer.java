@@ -0,0 +1,61 @@
+package es.lema.orthos.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Read-only {@link ResultBuffer} over the shared region of a {@link SharedResult}, read in
+ * place with pread(2) at the offset of every result. The region may be ashmem, whose size
+ * fstat(2) reports as 0, so it can not be mapped with a FileChannel, and the address returned
+ * by Os.mmap can not be read without native code.
+ */
+public final class DescriptorResultBuffer extends ResultBuffer {
+    private final FileDescriptor descriptor;
+    private final int capacity;
+
+    /**
+     * @param descriptor the region, still owned by the caller
+     * @param capacity the bytes of the region that may be read
+     */
+    public DescriptorResultBuffer(FileDescriptor descriptor, int capacity) {
+        this.descriptor = descriptor;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void write(int position, byte[] src, int srcOffset, int length) throws IOException {
+        throw new IOException("Read-only shared region");
+    }
+
+    @Override
+    public void read(int position, byte[] dst, int dstOffset, int length) throws IOException {
+        checkBounds(position, length);
+        int done = 0;
+        while (done < length) {
+            final int count;
+            try {
+                count = Os.pread(descriptor, dst, dstOffset + done, length - done, position + done);
+            } catch (ErrnoException e) {
+                throw new IOException("Unable to read the shared region", e);
+            }
+            if (count <= 0) {
+                throw new EOFException("Shared region shorter than " + capacity);
+            }
+            done += count;
+        }
+    }
+
+    @Override
+    public void close() {
+        // The descriptor is closed with the SharedResult
+    }
+}
@@ -0,0 +1,79 @@
+package es.lema.orthos.service;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link ResultBuffer} over a temporary file of the service, shared with the keyboard through
+ * {@link #share()}. The file is unlinked as soon as it is open, so it only lives, mostly in the
+ * page cache, while a descriptor of it is open. Unlike an ashmem {@link android.os.MemoryFile}
+ * it only needs public APIs: a MemoryFile does not expose its descriptor before API 27.
+ */
+public final class FileResultBuffer extends ResultBuffer {
+    private final RandomAccessFile file;
+    // Opened read-only before the file is unlinked, shared with the keyboard
+    private final ParcelFileDescriptor descriptor;
+    private final int capacity;
+
+    public FileResultBuffer(File directory, int capacity) throws IOException {
+        final File path = File.createTempFile("result", null, directory);
+        try {
+            file = new RandomAccessFile(path, "rw");
+            try {
+                file.setLength(capacity);
+                descriptor = ParcelFileDescriptor.open(path, ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        } finally {
+            path.delete();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * A read-only descriptor of the file to send to the keyboard
+     */
+    public ParcelFileDescriptor share() throws IOException {
+        return descriptor.dup();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void write(int position, byte[] src, int srcOffset, int length) throws IOException {
+        checkBounds(position, length);
+        file.seek(position);
+        file.write(src, srcOffset, length);
+    }
+
+    @Override
+    public void read(int position, byte[] dst, int dstOffset, int length) throws IOException {
+        checkBounds(position, length);
+        file.seek(position);
+        file.readFully(dst, dstOffset, length);
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        try {
+            if (descriptor != null) {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package es.lema.orthos.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Region holding encoded results outside of the binder transaction, see
+ * {@link SharedResult}. The service writes into a {@link FileResultBuffer} and the keyboard
+ * reads the same region through its descriptor with a {@link DescriptorResultBuffer}. A
+ * {@link ByteBufferResultBuffer} serves plain heap buffers on the JVM.
+ */
+public abstract class ResultBuffer implements Closeable {
+
+    /**
+     * Size of the region in bytes
+     */
+    public abstract int capacity();
+
+    public abstract void write(int position, byte[] src, int srcOffset, int length)
+            throws IOException;
+
+    public abstract void read(int position, byte[] dst, int dstOffset, int length)
+            throws IOException;
+
+    @Override
+    public abstract void close();
+
+    protected void checkBounds(int position, int length) throws IOException {
+        if (position < 0 || length < 0 || position > capacity() - length) {
+            throw new IOException("Out of bounds: " + position + "+" + length
+                    + " of " + capacity());
+        }
+    }
+}
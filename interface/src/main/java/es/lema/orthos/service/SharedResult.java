@@ -0,0 +1,157 @@
+package es.lema.orthos.service;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Results written into a {@link ResultBuffer} shared by the service, so that only the
+ * descriptor of the region and the offset and length of every result cross binder. Every
+ * result is a {@link CompactWordList} in its encoded form.
+ */
+public final class SharedResult implements Parcelable, Closeable {
+    // Null when the result was not parceled, e.g. written into a heap buffer on the JVM
+    private final ParcelFileDescriptor descriptor;
+    private final int size;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private SharedResult(ParcelFileDescriptor descriptor, int size, int[] offsets, int[] lengths) {
+        this.descriptor = descriptor;
+        this.size = size;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Appends the results one after another into the buffer, used by the service
+     */
+    public static final class Writer {
+        private final ResultBuffer buffer;
+        private final int[] offsets;
+        private final int[] lengths;
+        private int count = 0;
+        private int position = 0;
+
+        public Writer(ResultBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.offsets = new int[count];
+            this.lengths = new int[count];
+        }
+
+        public void add(CompactWordList words) throws IOException {
+            final byte[] encoded = words.getEncoded();
+            buffer.write(position, encoded, 0, encoded.length);
+            offsets[count] = position;
+            lengths[count] = encoded.length;
+            position += encoded.length;
+            count++;
+        }
+
+        /**
+         * @param descriptor the region of the buffer shared with the keyboard, or null
+         */
+        public SharedResult finish(ParcelFileDescriptor descriptor) {
+            if (count != offsets.length) {
+                throw new IllegalStateException(count + " of " + offsets.length + " results");
+            }
+            return new SharedResult(descriptor, position, offsets, lengths);
+        }
+    }
+
+    /**
+     * Number of results
+     */
+    public int count() {
+        return offsets.length;
+    }
+
+    /**
+     * Bytes used in the shared region
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Open the shared region read-only, to read the results with {@link #get}
+     */
+    public ResultBuffer open() throws IOException {
+        if (descriptor == null) {
+            throw new IOException("No shared region");
+        }
+        return new DescriptorResultBuffer(descriptor.getFileDescriptor(), size);
+    }
+
+    /**
+     * Read a result, its bounds are checked before it is read
+     * @throws IllegalArgumentException if its bytes are not encoded words
+     */
+    public CompactWordList get(ResultBuffer buffer, int index) throws IOException {
+        if (index < 0 || index >= offsets.length) {
+            throw new IOException("No result " + index + " of " + offsets.length);
+        }
+        buffer.checkBounds(offsets[index], lengths[index]);
+        final byte[] encoded = new byte[lengths[index]];
+        buffer.read(offsets[index], encoded, 0, encoded.length);
+        return CompactWordList.fromEncoded(encoded);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (descriptor != null) {
+            descriptor.close();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return descriptor != null ? CONTENTS_FILE_DESCRIPTOR : 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(size);
+        dest.writeIntArray(offsets);
+        dest.writeIntArray(lengths);
+        dest.writeInt(descriptor != null ? 1 : 0);
+        if (descriptor != null) {
+            descriptor.writeToParcel(dest, flags);
+        }
+    }
+
+    public static final Parcelable.Creator<SharedResult> CREATOR =
+            new Parcelable.Creator<SharedResult>() {
+        /*
+         * @throws IllegalArgumentException if the parcel does not describe a shared result
+         */
+        @Override
+        public SharedResult createFromParcel(Parcel source) {
+            final int size = source.readInt();
+            final int[] offsets = source.createIntArray();
+            final int[] lengths = source.createIntArray();
+            final ParcelFileDescriptor descriptor = source.readInt() != 0
+                    ? ParcelFileDescriptor.CREATOR.createFromParcel(source) : null;
+            if (size < 0 || offsets == null || lengths == null
+                    || offsets.length != lengths.length) {
+                if (descriptor != null) {
+                    try {
+                        descriptor.close();
+                    } catch (IOException e) {
+                        // Not shared anymore anyway
+                    }
+                }
+                throw new IllegalArgumentException("Malformed shared result");
+            }
+            return new SharedResult(descriptor, size, offsets, lengths);
+        }
+
+        @Override
+        public SharedResult[] newArray(int size) {
+            return new SharedResult[size];
+        }
+    };
+}
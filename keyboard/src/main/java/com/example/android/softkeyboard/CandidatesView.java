@@ -23,6 +23,7 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
@@ -32,8 +33,12 @@ import java.util.List;
 
 public class CandidatesView extends View {
 
+	private static final String TAG = CandidatesView.class.getSimpleName();
+	// Generation of suggestions that are always shown, e.g. the completions of the editor
+	public static final long ANY_GENERATION = -1;
 	private static final int OUT_OF_BOUNDS = -1;
-	private static final int MAX_SUGGESTIONS = 32;
+	// Most suggestions shown in the strip, queries are bounded to this count
+	static final int MAX_SUGGESTIONS = 32;
 	private static final int SCROLL_PIXELS = 20;
 	private static final List<String> EMPTY_LIST = new ArrayList<String>();
 	private SoftKeyboard mService;
@@ -52,6 +57,8 @@ public class CandidatesView extends View {
 	private Paint mPaint;
 	private boolean mScrolled;
 	private int mScrollX;
+	private long mGeneration = ANY_GENERATION;
+	private int mStaleCount;
 
 	private int mWidth;
 
@@ -249,19 +256,45 @@ public class CandidatesView extends View {
 
 	public void setSuggestions(
 	List<String> suggestions, boolean completions, boolean typedWordValid) {
+		setSuggestions(ANY_GENERATION, suggestions, completions, typedWordValid);
+	}
+
+	/**
+	 * Show the suggestions unless they are older than the ones already shown.
+	 */
+	public void setSuggestions(
+	long generation, List<String> suggestions, boolean completions, boolean typedWordValid) {
+		// Newer suggestions of the same request update the strip in place
+		boolean inPlace = false;
+		if (generation != ANY_GENERATION) {
+			if (generation < mGeneration) {
+				mStaleCount++;
+				Log.d(TAG, "stale suggestions dropped: " + mStaleCount);
+				return;
+			}
+			inPlace = generation == mGeneration;
+			mGeneration = generation;
+		}
 		clear();
 		if (suggestions != null) {
-			mSuggestions = new ArrayList<String>(suggestions);
+			mSuggestions = new ArrayList<String>(suggestions.size() > MAX_SUGGESTIONS
+					? suggestions.subList(0, MAX_SUGGESTIONS) : suggestions);
 		}
 		mTypedWordValid = typedWordValid;
-		scrollTo(0, 0);
-		mScrollX = 0;
+		if (!inPlace) {
+			scrollTo(0, 0);
+			mScrollX = 0;
+		}
 		// Compute the total width
 		inflate();
 		invalidate();
 		requestLayout();
 	}
 
+	public int getStaleCount() {
+		return mStaleCount;
+	}
+
 	public void clear() {
 		mSuggestions = EMPTY_LIST;
 		mTouchX = OUT_OF_BOUNDS;
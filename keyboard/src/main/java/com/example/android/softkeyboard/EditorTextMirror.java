@@ -0,0 +1,621 @@
+package com.example.android.softkeyboard;
+
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.KeyEvent;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.inputmethod.annotations.UsedForTesting;
+import es.lema.orthos.inputmethod.common.StringUtils;
+import es.lema.orthos.inputmethod.common.WordSeparators;
+
+/**
+ * Local copy of the state of the editor around the cursor, so that the cursor offset and the
+ * words next to it are known without reading the document through the input connection. The
+ * edits of the keyboard go through the mirror, which applies them to its copy and predicts
+ * the selection the editor will report. The copy is a window of text on each side of the
+ * selection, read again only when onUpdateSelection reports a selection that was not
+ * predicted and is not a move of the cursor inside the word under it, or when a periodic
+ * check of the last characters before the cursor finds that the editor changed the text
+ * differently than predicted.
+ *
+ * The writes of a burst of keys arriving faster than a frame are coalesced: the first one is
+ * sent at once, the following ones are queued until the next vsync and sent in a single batch
+ * edit, dropping the composing texts replaced by the next write.
+ */
+final class EditorTextMirror {
+    private static final String TAG = EditorTextMirror.class.getSimpleName();
+
+    // Characters read on each side of the selection, enough for the words next to it
+    static final int WINDOW_SIZE = 256;
+    // Edits between two checks of the text before the cursor
+    private static final int CHECK_INTERVAL = 16;
+    // Characters before the cursor compared by a check
+    private static final int CHECK_SIZE = 64;
+    // Selections predicted and not yet reported by the editor
+    private static final int MAX_EXPECTED = 16;
+
+    @Nullable
+    private InputConnection inputConnection;
+    @Nonnull
+    private WordSeparators wordSeparators = WordSeparators.forLocale(null);
+    // Absolute offsets in the document, -1 while unknown
+    private int selectionStart = -1;
+    private int selectionEnd = -1;
+    private int composingStart = -1;
+    private int composingEnd = -1;
+    // Text up to the selection start, and from the selection end
+    private final StringBuilder before = new StringBuilder();
+    private final StringBuilder after = new StringBuilder();
+    private boolean textValid;
+    private boolean checkPending;
+    private int batchDepth;
+    private final ArrayDeque<Long> expected = new ArrayDeque<Long>();
+    // Incremented whenever the text changes, not when only the cursor moves
+    private int textVersion;
+
+    // Writes waiting for the next frame, and whether a frame callback is pending
+    private final List<Write> queued = new ArrayList<Write>();
+    private boolean frameScheduled;
+
+    private int editCount;
+    private int readCount;
+    private int windowReadCount;
+    private int divergenceCount;
+    // Calls to the input connection saved by coalescing, net of the batch edits added
+    private int savedCallCount;
+
+    /*
+     * Runs the flush of the queued writes on the next frame
+     */
+    interface FrameScheduler {
+        void postFrameCallback(@Nonnull Choreographer.FrameCallback callback);
+
+        void removeFrameCallback(@Nonnull Choreographer.FrameCallback callback);
+    }
+
+    // The Choreographer of the thread of the keyboard, the UI thread
+    private static final FrameScheduler CHOREOGRAPHER = new FrameScheduler() {
+        @Override
+        public void postFrameCallback(@Nonnull final Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(@Nonnull final Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    };
+
+    private final FrameScheduler frameScheduler;
+
+    private static final int WRITE_COMMIT = 0;
+    private static final int WRITE_SET_COMPOSING = 1;
+    private static final int WRITE_SET_REGION = 2;
+    private static final int WRITE_FINISH_COMPOSING = 3;
+
+    private static final class Write {
+        final int type;
+        @Nullable
+        final String text;
+        final int first;
+        final int second;
+
+        Write(final int type, @Nullable final String text, final int first, final int second) {
+            this.type = type;
+            this.text = text;
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    private final Choreographer.FrameCallback flushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            frameScheduled = false;
+            flush();
+        }
+    };
+
+    EditorTextMirror() {
+        this(CHOREOGRAPHER);
+    }
+
+    @UsedForTesting
+    EditorTextMirror(@Nonnull final FrameScheduler frameScheduler) {
+        this.frameScheduler = frameScheduler;
+    }
+
+    public void onStartInput(
+    @Nullable final InputConnection inputConnection,
+    @Nullable final EditorInfo editorInfo) {
+        // The writes queued for the previous editor are still due to it
+        flush();
+        if (frameScheduled) {
+            frameScheduler.removeFrameCallback(flushCallback);
+            frameScheduled = false;
+        }
+        this.inputConnection = inputConnection;
+        selectionStart = editorInfo != null ? editorInfo.initialSelStart : -1;
+        selectionEnd = editorInfo != null ? editorInfo.initialSelEnd : -1;
+        composingStart = -1;
+        composingEnd = -1;
+        batchDepth = 0;
+        expected.clear();
+        invalidateText();
+    }
+
+    /**
+     * Compare a selection reported by the editor with the predicted ones.
+     * @return true if it was predicted, false if the text is read again on next use.
+     */
+    public boolean onUpdateSelection(
+    final int newStart,
+    final int newEnd,
+    final int candidatesStart,
+    final int candidatesEnd) {
+        final Long selection = pack(newStart, newEnd);
+        if (expected.contains(selection)) {
+            // The earlier predictions were merged by a batch edit
+            Long head;
+            do {
+                head = expected.poll();
+            } while (!selection.equals(head));
+            return true;
+        }
+        if (expected.isEmpty() && newStart == selectionStart && newEnd == selectionEnd) {
+            return true;
+        }
+        if (!expected.isEmpty()) {
+            divergenceCount++;
+            Log.d(TAG, "onUpdateSelection(): diverged " + this);
+        }
+        expected.clear();
+        if (!moveCursor(newStart, newEnd, candidatesStart)) {
+            invalidateText();
+        }
+        selectionStart = newStart;
+        selectionEnd = newEnd;
+        composingStart = candidatesStart;
+        composingEnd = candidatesEnd;
+        return false;
+    }
+
+    /*
+     * Move the cursor inside the text known around it, only if it stays in the same word: a
+     * longer jump may as well be an edit of the editor, e.g. a paste, and is not explained
+     */
+    private boolean moveCursor(final int newStart, final int newEnd, final int candidatesStart) {
+        if (!textValid || selectionStart < 0 || selectionStart != selectionEnd
+                || newStart != newEnd || composingStart >= 0 || candidatesStart >= 0) {
+            return false;
+        }
+        final int delta = newStart - selectionStart;
+        if (delta < -before.length() || delta > after.length()) {
+            return false;
+        }
+        for (int i = Math.min(delta, 0); i < Math.max(delta, 0); i++) {
+            final char c = i < 0 ? before.charAt(before.length() + i) : after.charAt(i);
+            if (wordSeparators.isSeparator(c)) {
+                return false;
+            }
+        }
+        if (delta < 0) {
+            after.insert(0, before, before.length() + delta, before.length());
+            before.setLength(before.length() + delta);
+        } else {
+            before.append(after, 0, delta);
+            after.delete(0, delta);
+        }
+        return true;
+    }
+
+    /**
+     * Absolute offset of the cursor, read from the whole document only if it is not known
+     */
+    public int getCursorPosition() {
+        if (selectionStart < 0 && inputConnection != null) {
+            flush();
+            final CharSequence text = inputConnection.getTextBeforeCursor(Integer.MAX_VALUE, 0);
+            readCount++;
+            selectionStart = selectionEnd = StringUtils.isEmpty(text) ? 0 : text.length();
+        }
+        return selectionStart;
+    }
+
+    /*
+     * Set the separators of the language of the current subtype
+     */
+    void setWordSeparators(@Nonnull final WordSeparators wordSeparators) {
+        this.wordSeparators = wordSeparators;
+        // The words around the cursor change with the separators
+        textVersion++;
+    }
+
+    @Nonnull
+    WordSeparators getWordSeparators() {
+        return wordSeparators;
+    }
+
+    /*
+     * Absolute offset of the selection start, -1 if it is not known
+     */
+    int getSelectionStart() {
+        return selectionStart;
+    }
+
+    /*
+     * Version of the text, changed by every edit and every read but not by cursor moves
+     */
+    int getTextVersion() {
+        validateText();
+        return textVersion;
+    }
+
+    int getBeforeLength() {
+        validateText();
+        return before.length();
+    }
+
+    /*
+     * The character at the given distance before the selection, 1 for the one next to it
+     */
+    char charBefore(final int distance) {
+        return before.charAt(before.length() - distance);
+    }
+
+    int getAfterLength() {
+        validateText();
+        return after.length();
+    }
+
+    /*
+     * The character at the given index after the selection, 0 for the one next to it
+     */
+    char charAfter(final int index) {
+        return after.charAt(index);
+    }
+
+    @Nonnull
+    String getTextBeforeCursor(final int length) {
+        return before.substring(before.length() - length);
+    }
+
+    @Nonnull
+    String getTextAfterCursor(final int length) {
+        return after.substring(0, length);
+    }
+
+    /**
+     * At most {@link #WINDOW_SIZE} characters before the selection
+     */
+    @Nonnull
+    public CharSequence getTextBeforeCursor() {
+        validateText();
+        return before.toString();
+    }
+
+    /**
+     * At most {@link #WINDOW_SIZE} characters after the selection
+     */
+    @Nonnull
+    public CharSequence getTextAfterCursor() {
+        validateText();
+        return after.toString();
+    }
+
+    /**
+     * Same as InputConnection.getCursorCapsMode(), computed on the text before the cursor: the
+     * editor is only read if the mirror has to read its window again.
+     */
+    public int getCursorCapsMode(final int reqModes) {
+        final int modes = reqModes & (TextUtils.CAP_MODE_CHARACTERS
+                | TextUtils.CAP_MODE_WORDS | TextUtils.CAP_MODE_SENTENCES);
+        if (modes == 0) {
+            return 0;
+        }
+        validateText();
+        if (!textValid) {
+            return 0;
+        }
+        return TextUtils.getCapsMode(before, before.length(), modes);
+    }
+
+    public void beginBatchEdit() {
+        flush();
+        batchDepth++;
+        inputConnection.beginBatchEdit();
+    }
+
+    public void endBatchEdit() {
+        inputConnection.endBatchEdit();
+        if (batchDepth > 0) {
+            batchDepth--;
+        }
+        checkText();
+    }
+
+    public void commitText(@Nonnull final CharSequence text, final int newCursorPosition) {
+        write(new Write(WRITE_COMMIT, text.toString(), newCursorPosition, 0));
+        replaceComposing(text, newCursorPosition);
+        composingStart = composingEnd = -1;
+        onEdit();
+    }
+
+    public void setComposingText(@Nonnull final CharSequence text, final int newCursorPosition) {
+        write(new Write(WRITE_SET_COMPOSING, text.toString(), newCursorPosition, 0));
+        final int start = replaceComposing(text, newCursorPosition);
+        composingStart = start;
+        composingEnd = start >= 0 ? start + text.length() : -1;
+        onEdit();
+    }
+
+    public void setComposingRegion(final int start, final int end) {
+        write(new Write(WRITE_SET_REGION, null, start, end));
+        composingStart = Math.min(start, end);
+        composingEnd = Math.max(start, end);
+    }
+
+    public void finishComposingText() {
+        write(new Write(WRITE_FINISH_COMPOSING, null, 0, 0));
+        composingStart = composingEnd = -1;
+    }
+
+    /**
+     * Send the key down and up, only deletions are predicted
+     */
+    public void sendKeyEvent(final int keyCode) {
+        flush();
+        inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+        inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+        composingStart = composingEnd = -1;
+        if (keyCode == KeyEvent.KEYCODE_DEL && selectionStart >= 0) {
+            if (selectionStart != selectionEnd) {
+                replace(selectionStart, selectionEnd, "", 1);
+            } else if (selectionStart > 0) {
+                replace(selectionStart - getLastCharCount(), selectionStart, "", 1);
+            }
+            onEdit();
+        } else {
+            // The editor may insert a line break, run an action or ignore the key
+            expected.clear();
+            selectionStart = selectionEnd = -1;
+            invalidateText();
+        }
+    }
+
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /*
+     * Number of times the windows were read again, i.e. the text around the cursor is new
+     */
+    public int getWindowReadCount() {
+        return windowReadCount;
+    }
+
+    public int getDivergenceCount() {
+        return divergenceCount;
+    }
+
+    /*
+     * Net number of calls to the input connection saved by coalescing the writes of bursts
+     */
+    public int getSavedCallCount() {
+        return savedCallCount;
+    }
+
+    /**
+     * Send the queued writes now, before the input connection is used directly
+     */
+    public void flush() {
+        final int count = queued.size();
+        if (count == 0) {
+            return;
+        }
+        if (count > 1) {
+            inputConnection.beginBatchEdit();
+        }
+        for (int i = 0; i < count; i++) {
+            send(queued.get(i));
+        }
+        if (count > 1) {
+            inputConnection.endBatchEdit();
+            savedCallCount -= 2;
+        }
+        queued.clear();
+    }
+
+    /*
+     * Send the write at once if it is the first since the last frame, queue it otherwise. A
+     * queued composing text replaced by the write is dropped: the write replaces the same
+     * region, the composing region or else the selection, as if it had been sent.
+     */
+    private void write(@Nonnull final Write write) {
+        if (batchDepth > 0) {
+            send(write);
+            return;
+        }
+        if (!frameScheduled) {
+            send(write);
+            frameScheduled = true;
+            frameScheduler.postFrameCallback(flushCallback);
+            return;
+        }
+        final int last = queued.size() - 1;
+        if (last >= 0 && queued.get(last).type == WRITE_SET_COMPOSING
+                && (write.type == WRITE_COMMIT || write.type == WRITE_SET_COMPOSING)) {
+            queued.remove(last);
+            savedCallCount++;
+        }
+        queued.add(write);
+    }
+
+    private void send(@Nonnull final Write write) {
+        switch (write.type) {
+            case WRITE_COMMIT:
+                inputConnection.commitText(write.text, write.first);
+                break;
+            case WRITE_SET_COMPOSING:
+                inputConnection.setComposingText(write.text, write.first);
+                break;
+            case WRITE_SET_REGION:
+                inputConnection.setComposingRegion(write.first, write.second);
+                break;
+            case WRITE_FINISH_COMPOSING:
+                inputConnection.finishComposingText();
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EditorTextMirror[selection=" + selectionStart + "," + selectionEnd
+                + " composing=" + composingStart + "," + composingEnd
+                + " valid=" + textValid + " edits=" + editCount
+                + " reads=" + readCount + " divergences=" + divergenceCount
+                + " saved=" + savedCallCount + "]";
+    }
+
+    /*
+     * Replace the composing text, or the selection if there is none, returns the start of the
+     * replaced region or -1 if it is not known
+     */
+    private int replaceComposing(@Nonnull final CharSequence text, final int newCursorPosition) {
+        final int start = composingStart >= 0 ? composingStart : selectionStart;
+        final int end = composingStart >= 0 ? composingEnd : selectionEnd;
+        if (start < 0) {
+            invalidateText();
+            return -1;
+        }
+        replace(start, end, text, newCursorPosition);
+        return start;
+    }
+
+    private void replace(
+    final int start,
+    final int end,
+    @Nonnull final CharSequence text,
+    final int newCursorPosition) {
+        final int length = text.length();
+        // Position of the cursor in the text, as defined by InputConnection.commitText()
+        final int cursor = newCursorPosition > 0 ? length + newCursorPosition - 1 : newCursorPosition;
+        final int removedBefore = selectionStart - start;
+        final int removedAfter = end - selectionEnd;
+        textVersion++;
+        if (textValid && removedBefore >= 0 && removedAfter >= 0
+                && removedBefore <= before.length() && removedAfter <= after.length()
+                && cursor >= 0 && cursor <= length) {
+            before.setLength(before.length() - removedBefore);
+            before.append(text, 0, cursor);
+            after.delete(0, removedAfter);
+            after.insert(0, text.subSequence(cursor, length));
+            trimText();
+        } else {
+            invalidateText();
+        }
+        if (cursor >= 0 && cursor <= length) {
+            selectionStart = selectionEnd = start + cursor;
+            if (expected.size() == MAX_EXPECTED) {
+                expected.poll();
+            }
+            expected.add(pack(selectionStart, selectionEnd));
+        } else {
+            selectionStart = selectionEnd = -1;
+        }
+    }
+
+    /*
+     * Characters deleted by a backspace, two for a surrogate pair
+     */
+    private int getLastCharCount() {
+        final int length = before.length();
+        if (textValid && length >= 2 && Character.isLowSurrogate(before.charAt(length - 1))
+                && Character.isHighSurrogate(before.charAt(length - 2))) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private void onEdit() {
+        if (++editCount % CHECK_INTERVAL == 0) {
+            checkPending = true;
+        }
+        checkText();
+    }
+
+    /*
+     * Compare the last characters before the cursor with the editor, outside batch edits
+     */
+    private void checkText() {
+        if (!checkPending || batchDepth > 0 || !textValid) {
+            return;
+        }
+        checkPending = false;
+        flush();
+        final CharSequence text = inputConnection.getTextBeforeCursor(CHECK_SIZE, 0);
+        readCount++;
+        final int length = Math.min(CHECK_SIZE, before.length());
+        if (text == null || text.length() != length
+                || !before.substring(before.length() - length).equals(text.toString())) {
+            divergenceCount++;
+            Log.d(TAG, "checkText(): diverged " + this);
+            invalidateText();
+        }
+    }
+
+    private void validateText() {
+        if (textValid || inputConnection == null) {
+            return;
+        }
+        flush();
+        before.setLength(0);
+        after.setLength(0);
+        final CharSequence beforeText = inputConnection.getTextBeforeCursor(WINDOW_SIZE, 0);
+        if (beforeText != null) {
+            before.append(beforeText);
+        }
+        final CharSequence afterText = inputConnection.getTextAfterCursor(WINDOW_SIZE, 0);
+        if (afterText != null) {
+            after.append(afterText);
+        }
+        readCount++;
+        windowReadCount++;
+        textVersion++;
+        textValid = true;
+    }
+
+    private void invalidateText() {
+        textVersion++;
+        textValid = false;
+        before.setLength(0);
+        after.setLength(0);
+    }
+
+    /*
+     * Keep the windows bounded, they only need to reach the words next to the cursor
+     */
+    private void trimText() {
+        if (before.length() > 2 * WINDOW_SIZE) {
+            before.delete(0, before.length() - WINDOW_SIZE);
+        }
+        if (after.length() > 2 * WINDOW_SIZE) {
+            after.setLength(WINDOW_SIZE);
+        }
+    }
+
+    @Nonnull
+    private static Long pack(final int start, final int end) {
+        return ((long) start << 32) | (end & 0xffffffffL);
+    }
+}
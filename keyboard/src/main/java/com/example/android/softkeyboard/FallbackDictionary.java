@@ -0,0 +1,392 @@
+package com.example.android.softkeyboard;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.inputmethod.annotations.UsedForTesting;
+
+/**
+ * Read-only trie of the common words of a language, memory-mapped from an uncompressed asset
+ * so that nothing is loaded on the Java heap. It gives prefix completions and corrections one
+ * edit away in microseconds, and is used while Orthos is not connected, too slow or dead, and
+ * to paint the first candidates of every request.
+ *
+ * The asset dict/&lt;language&gt;.dict is big-endian: the magic and version ints followed by the
+ * nodes, the root first. Every node is its flags byte (bit 0 set if it ends a word), the
+ * frequency of its word, the highest frequency below it, its number of children, and for every
+ * child its character and the int offset of its node, sorted by character. Nodes may be shared
+ * by several parents, so a DAWG is read the same as a trie. The assets are built from the
+ * word lists of src/main/dictionaries by the dicttool, see tools/dicttool.
+ */
+public final class FallbackDictionary {
+    private static final String TAG = FallbackDictionary.class.getSimpleName();
+
+    private static final int MAGIC = 0x4f444157;
+    private static final int VERSION = 1;
+    private static final int ROOT = 8;
+    private static final int TERMINAL = 0x01;
+    private static final int NODE_HEADER_SIZE = 4;
+    private static final int CHILD_SIZE = 6;
+    // Nodes visited at most to find completions, bounds the time of short prefixes
+    private static final int MAX_VISITED = 2000;
+
+    // Dictionaries opened per language, absent languages are remembered too
+    private static final ConcurrentHashMap<String, FallbackDictionary> dictionaries =
+            new ConcurrentHashMap<String, FallbackDictionary>();
+    private static final FallbackDictionary MISSING = new FallbackDictionary(null);
+
+    @Nullable
+    private final ByteBuffer buffer;
+
+    private FallbackDictionary(@Nullable final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Get the dictionary of the language, or null if the keyboard has none for it. The asset
+     * is mapped on the first call, which must not be made from the UI thread.
+     */
+    @Nullable
+    public static FallbackDictionary get(
+    @Nonnull final AssetManager assets,
+    @Nonnull final String language) {
+        FallbackDictionary dictionary = dictionaries.get(language);
+        if (dictionary == null) {
+            dictionary = open(assets, "dict/" + language + ".dict");
+            final FallbackDictionary previous = dictionaries.putIfAbsent(language, dictionary);
+            if (previous != null) {
+                dictionary = previous;
+            }
+        }
+        return dictionary != MISSING ? dictionary : null;
+    }
+
+    /**
+     * The dictionary of a buffer in the format of the assets, or null if its header is invalid
+     */
+    @UsedForTesting
+    @Nullable
+    static FallbackDictionary wrap(@Nonnull final ByteBuffer buffer) {
+        if (buffer.capacity() < ROOT + NODE_HEADER_SIZE
+                || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        return new FallbackDictionary(buffer);
+    }
+
+    @Nonnull
+    private static FallbackDictionary open(
+    @Nonnull final AssetManager assets,
+    @Nonnull final String name) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = assets.openFd(name);
+            final FileInputStream input = descriptor.createInputStream();
+            try {
+                final ByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength());
+                final FallbackDictionary dictionary = wrap(buffer);
+                if (dictionary == null) {
+                    Log.e(TAG, "open(): invalid dictionary " + name);
+                    return MISSING;
+                }
+                return dictionary;
+            } finally {
+                input.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "open(): no dictionary " + name);
+        } catch (IOException e) {
+            Log.e(TAG, "open(): unable to map " + name, e);
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "open()", e);
+                }
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * The word if it is known, followed by the corrections one edit away and the completions
+     * of the word, the most frequent first.
+     */
+    @Nonnull
+    public List<String> suggest(@Nonnull final String word, final int maxCount) {
+        final Set<String> words = new LinkedHashSet<String>();
+        final String lower = word.toLowerCase(Locale.ROOT);
+        if (!lower.equals(word) && lower.substring(1).equals(word.substring(1))) {
+            // Capitalized words, e.g. at the start of a sentence, are stored in lower case
+            if (contains(word)) {
+                words.add(word);
+            }
+            final Set<String> lowerWords = new LinkedHashSet<String>();
+            collect(lower, maxCount, lowerWords);
+            for (String lowerWord : lowerWords) {
+                words.add(Character.toUpperCase(lowerWord.charAt(0)) + lowerWord.substring(1));
+            }
+        } else {
+            collect(word, maxCount, words);
+        }
+        final List<String> suggestions = new ArrayList<String>(words);
+        return suggestions.size() > maxCount ? suggestions.subList(0, maxCount) : suggestions;
+    }
+
+    public boolean contains(@Nonnull final String word) {
+        final int node = find(ROOT, word);
+        return node >= 0 && isTerminal(node);
+    }
+
+    /**
+     * Every word of the dictionary, in the order of their characters
+     */
+    @Nonnull
+    public List<String> getWords() {
+        final List<String> words = new ArrayList<String>();
+        collectWords(ROOT, new StringBuilder(), words);
+        return words;
+    }
+
+    private void collectWords(
+    final int node,
+    @Nonnull final StringBuilder prefix,
+    @Nonnull final List<String> words) {
+        if (isTerminal(node)) {
+            words.add(prefix.toString());
+        }
+        final int count = childCount(node);
+        for (int i = 0; i < count; i++) {
+            prefix.append(childLabel(node, i));
+            collectWords(childNode(node, i), prefix, words);
+            prefix.setLength(prefix.length() - 1);
+        }
+    }
+
+    private void collect(
+    @Nonnull final String word,
+    final int maxCount,
+    @Nonnull final Set<String> words) {
+        if (word.length() == 0) {
+            return;
+        }
+        if (contains(word)) {
+            words.add(word);
+        }
+        words.addAll(corrections(word));
+        words.addAll(completions(word, maxCount));
+    }
+
+    /*
+     * Known words one insertion, deletion, substitution or transposition away
+     */
+    @Nonnull
+    private List<String> corrections(@Nonnull final String word) {
+        final Map<String, Integer> found = new HashMap<String, Integer>();
+        correct(ROOT, word, 0, new StringBuilder(), false, found);
+        found.remove(word);
+        return sortByFrequency(found);
+    }
+
+    private void correct(
+    final int node,
+    @Nonnull final String word,
+    final int index,
+    @Nonnull final StringBuilder prefix,
+    final boolean edited,
+    @Nonnull final Map<String, Integer> found) {
+        final int length = word.length();
+        if (index == length && edited && isTerminal(node)) {
+            found.put(prefix.toString(), frequency(node));
+        }
+        if (index < length) {
+            final int child = child(node, word.charAt(index));
+            if (child >= 0) {
+                prefix.append(word.charAt(index));
+                correct(child, word, index + 1, prefix, edited, found);
+                prefix.setLength(prefix.length() - 1);
+            }
+        }
+        if (edited) {
+            return;
+        }
+        if (index < length) {
+            // Deletion
+            correct(node, word, index + 1, prefix, true, found);
+        }
+        final int count = childCount(node);
+        for (int i = 0; i < count; i++) {
+            final char label = childLabel(node, i);
+            final int child = childNode(node, i);
+            prefix.append(label);
+            // Insertion
+            correct(child, word, index, prefix, true, found);
+            if (index < length && label != word.charAt(index)) {
+                // Substitution
+                correct(child, word, index + 1, prefix, true, found);
+            }
+            prefix.setLength(prefix.length() - 1);
+        }
+        if (index + 1 < length && word.charAt(index) != word.charAt(index + 1)) {
+            // Transposition
+            final int first = child(node, word.charAt(index + 1));
+            final int second = first >= 0 ? child(first, word.charAt(index)) : -1;
+            if (second >= 0) {
+                prefix.append(word.charAt(index + 1)).append(word.charAt(index));
+                correct(second, word, index + 2, prefix, true, found);
+                prefix.setLength(prefix.length() - 2);
+            }
+        }
+    }
+
+    /*
+     * Known words starting with the prefix, the most frequent first, found best-first on the
+     * highest frequency below every node
+     */
+    @Nonnull
+    private List<String> completions(@Nonnull final String prefix, final int maxCount) {
+        final List<String> words = new ArrayList<String>();
+        final int start = find(ROOT, prefix);
+        if (start < 0) {
+            return words;
+        }
+        final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+        queue.add(new Entry(start, prefix, maxFrequency(start), false));
+        int visited = 0;
+        while (!queue.isEmpty() && words.size() < maxCount && visited < MAX_VISITED) {
+            final Entry entry = queue.poll();
+            if (entry.word) {
+                if (!entry.text.equals(prefix)) {
+                    words.add(entry.text);
+                }
+                continue;
+            }
+            visited++;
+            if (isTerminal(entry.node)) {
+                queue.add(new Entry(entry.node, entry.text, frequency(entry.node), true));
+            }
+            final int count = childCount(entry.node);
+            for (int i = 0; i < count; i++) {
+                final int child = childNode(entry.node, i);
+                queue.add(new Entry(child, entry.text + childLabel(entry.node, i),
+                        maxFrequency(child), false));
+            }
+        }
+        return words;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final int node;
+        final String text;
+        final int priority;
+        // Whether the entry is the word of the node rather than the words below it
+        final boolean word;
+
+        Entry(final int node, @Nonnull final String text, final int priority, final boolean word) {
+            this.node = node;
+            this.text = text;
+            this.priority = priority;
+            this.word = word;
+        }
+
+        @Override
+        public int compareTo(@Nonnull final Entry other) {
+            if (priority != other.priority) {
+                return other.priority - priority;
+            }
+            // Words before the nodes of the same frequency, they can not get better
+            return (other.word ? 1 : 0) - (word ? 1 : 0);
+        }
+    }
+
+    @Nonnull
+    private static List<String> sortByFrequency(@Nonnull final Map<String, Integer> found) {
+        final List<Map.Entry<String, Integer>> entries =
+                new ArrayList<Map.Entry<String, Integer>>(found.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return b.getValue() - a.getValue();
+            }
+        });
+        final List<String> words = new ArrayList<String>(entries.size());
+        for (Map.Entry<String, Integer> entry : entries) {
+            words.add(entry.getKey());
+        }
+        return words;
+    }
+
+    private int find(int node, @Nonnull final String word) {
+        for (int i = 0; i < word.length() && node >= 0; i++) {
+            node = child(node, word.charAt(i));
+        }
+        return node;
+    }
+
+    /*
+     * Binary search of the child of the node for the character, -1 if there is none
+     */
+    private int child(final int node, final char label) {
+        int low = 0;
+        int high = childCount(node) - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final char middleLabel = childLabel(node, middle);
+            if (middleLabel < label) {
+                low = middle + 1;
+            } else if (middleLabel > label) {
+                high = middle - 1;
+            } else {
+                return childNode(node, middle);
+            }
+        }
+        return -1;
+    }
+
+    private boolean isTerminal(final int node) {
+        return (buffer.get(node) & TERMINAL) != 0;
+    }
+
+    private int frequency(final int node) {
+        return buffer.get(node + 1) & 0xff;
+    }
+
+    private int maxFrequency(final int node) {
+        return buffer.get(node + 2) & 0xff;
+    }
+
+    private int childCount(final int node) {
+        return buffer.get(node + 3) & 0xff;
+    }
+
+    private char childLabel(final int node, final int index) {
+        return buffer.getChar(node + NODE_HEADER_SIZE + index * CHILD_SIZE);
+    }
+
+    private int childNode(final int node, final int index) {
+        return buffer.getInt(node + NODE_HEADER_SIZE + index * CHILD_SIZE + 2);
+    }
+}
@@ -1,79 +1,151 @@
 package com.example.android.softkeyboard;
 
 import android.inputmethodservice.Keyboard;
-import android.os.RemoteException;
-import android.util.Log;
 import android.view.KeyEvent;
-import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodSubtype;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 
 import es.lema.orthos.OrthosServiceManager;
-import es.lema.orthos.inputmethod.common.StringUtils;
-import es.lema.orthos.service.IOrthosSession;
-import es.lema.orthos.service.Word;
-import es.lema.orthos.service.WordList;
-
-import static android.content.ContentValues.TAG;
+import es.lema.orthos.inputmethod.common.WordSeparators;
 
 public class InputConnectionManager {
 
-    private static final int EDITOR_CONTENTS_CACHE_SIZE = 1024;
-    // Regular expresion for word separator
-    private static final String wordSeparators = "[\\p{Punct}\\s\\d]+";
-
     private final SoftKeyboard softKeyboard;
-    private InputConnection inputConnection;
+    // Edits go through the mirror, which knows the cursor and the text around it
+    private final EditorTextMirror editorText = new EditorTextMirror();
+    private final WordBoundaryTracker wordTracker = new WordBoundaryTracker(editorText);
+    // Window reads of the mirror whose words were already prefetched
+    private int prefetchedWindowReads;
     private StringBuilder composingText;
     private String beforeText;
     private String afterText;
-    private Pattern patternWordSeparators;
+    private final SuggestionScheduler suggestionScheduler;
+    private final SuggestionPrefetcher suggestionPrefetcher;
+    // Generation of the last suggestion request, see SuggestionRequest
+    private long suggestionGeneration;
 
     public InputConnectionManager(
     @Nonnull final SoftKeyboard softKeyboard) {
         this.softKeyboard = softKeyboard;
         composingText = new StringBuilder();
-        patternWordSeparators = Pattern.compile(wordSeparators);
+        final int maxDelay =
+        softKeyboard.getResources().getInteger(R.integer.delay_to_update_suggestions);
+        suggestionScheduler = new SuggestionScheduler(
+        softKeyboard.getInterfaceHandler(),
+        new SuggestionProvider(softKeyboard.getAssets()),
+        new SuggestionDebouncer(maxDelay),
+        new SuggestionScheduler.ReplayListener() {
+            @Override
+            public void onReplay() {
+                // A new generation, the one of the failed query was already shown
+                updateCandidates();
+            }
+        });
+        OrthosServiceManager.getInstance().addConnectionListener(suggestionScheduler);
+        suggestionPrefetcher = new SuggestionPrefetcher();
+    }
+
+    /*
+     * Bind the mirror to the new editor, before its state is used to set up the keyboard
+     */
+    public void onStartEditor(EditorInfo attribute) {
+        editorText.onStartInput(softKeyboard.getCurrentInputConnection(), attribute);
+        editorText.setWordSeparators(WordSeparators.forLocale(getLocale()));
     }
 
     public void onStartInput() {
-        inputConnection = softKeyboard.getCurrentInputConnection();
+        suggestionScheduler.cancel();
+        suggestionGeneration++;
         resetCursorPosition();
     }
 
+    /*
+     * Send the writes coalesced for the next frame, before the input connection is used
+     * directly
+     */
+    public void flushEdits() {
+        editorText.flush();
+    }
+
+    /*
+     * Caps mode at the cursor for the capitalization flags of the input type, computed on the
+     * mirrored text
+     */
+    public int getCursorCapsMode(int inputType) {
+        return editorText.getCursorCapsMode(inputType);
+    }
+
+    /*
+     * Calls to the input connection saved by coalescing bursts of keys
+     */
+    public int getSavedCallCount() {
+        return editorText.getSavedCallCount();
+    }
+
+    public void onSubtypeChanged(String locale) {
+        editorText.setWordSeparators(WordSeparators.forLocale(locale));
+    }
+
+    public void onDestroy() {
+        OrthosServiceManager.getInstance().removeConnectionListener(suggestionScheduler);
+        suggestionScheduler.shutdown();
+    }
+
     public void resetCursorPosition() {
         composingText.setLength(0);
-        beforeText = "";
-        CharSequence charSequence =
-        inputConnection.getTextBeforeCursor(EDITOR_CONTENTS_CACHE_SIZE, 0);
-        if (  !StringUtils.isEmpty(charSequence)
-           && !isWordSeparator(charSequence.charAt(charSequence.length()-1))) {
-            String[] words = patternWordSeparators.split(charSequence);
-            beforeText = words[words.length - 1];
+        wordTracker.update();
+        beforeText = wordTracker.getTextBefore();
+        afterText = wordTracker.getTextAfter();
+        if (editorText.getWindowReadCount() != prefetchedWindowReads) {
+            prefetchedWindowReads = editorText.getWindowReadCount();
+            prefetchNearbyWords();
         }
-        afterText = "";
-        charSequence =
-        inputConnection.getTextAfterCursor(EDITOR_CONTENTS_CACHE_SIZE, 0);
-        if (  !StringUtils.isEmpty(charSequence)
-           && !isWordSeparator(charSequence.charAt(0))) {
-            String[] words = patternWordSeparators.split(charSequence);
-            afterText = words[0];
+    }
+
+    /*
+     * Prefetch the words around the cursor, likely to be edited next, once per new window
+     */
+    private void prefetchNearbyWords() {
+        final WordSeparators separators = editorText.getWordSeparators();
+        final List<String> words = new ArrayList<String>();
+        separators.split(editorText.getTextBeforeCursor(), words);
+        final List<String> nearbyWords = SuggestionPrefetcher.lastWords(words);
+        words.clear();
+        separators.split(editorText.getTextAfterCursor(), words);
+        nearbyWords.addAll(SuggestionPrefetcher.firstWords(words));
+        prefetch(nearbyWords);
+    }
+
+    /*
+     * Prefetch the suggestions of several words in a single batch
+     */
+    private void prefetch(List<String> words) {
+        if (!softKeyboard.getPredictionOn()) {
+            return;
+        }
+        final String locale = getLocale();
+        if (locale != null) {
+            suggestionPrefetcher.prefetch(locale, words);
         }
     }
 
+    private String getLocale() {
+        InputMethodSubtype subtype =
+        softKeyboard.getInputMethodManager().getCurrentInputMethodSubtype();
+        return subtype != null ? subtype.getLocale() : null;
+    }
+
     public boolean isWordSeparator(char code) {
-        Matcher matcher =
-        patternWordSeparators.matcher(new StringBuilder().append(code));
-        return matcher.matches();
+        return editorText.getWordSeparators().isSeparator(code);
     }
 
     public void onKey(int keyCode) {
+        suggestionScheduler.onKeyPressed();
         if (keyCode == Keyboard.KEYCODE_DELETE) {
             handleBackspace();
         } else {
@@ -81,37 +153,46 @@ public class InputConnectionManager {
         }
     }
 
+    /*
+     * Keep the mirror in sync with the selection reported by the editor
+     */
+    public void onUpdateSelection(
+    int newStart,
+    int newEnd,
+    int candidatesStart,
+    int candidatesEnd) {
+        editorText.onUpdateSelection(newStart, newEnd, candidatesStart, candidatesEnd);
+    }
+
     public void onText(CharSequence text) {
-        inputConnection.beginBatchEdit();
+        editorText.beginBatchEdit();
         commitText();
-        inputConnection.commitText(text, 0);
-        inputConnection.endBatchEdit();
+        editorText.commitText(text, 0);
+        editorText.endBatchEdit();
+        final List<String> words = new ArrayList<String>();
+        editorText.getWordSeparators().split(text, words);
+        prefetch(SuggestionPrefetcher.lastWords(words));
     }
 
     public void commitText() {
         if (composingText.length() > 0) {
-            inputConnection.commitText(composingText, 1);
+            editorText.commitText(composingText, 1);
         }
     }
 
     public void finishComposingText() {
         if (composingText.length() > 0) {
-            inputConnection.finishComposingText();
+            editorText.finishComposingText();
         }
         resetCursorPosition();
     }
 
     public void composingText(CharSequence text) {
-        int cursorPosition = 0;
-        CharSequence charSequence =
-        inputConnection.getTextBeforeCursor(Integer.MAX_VALUE, 0);
-        if (!StringUtils.isEmpty(charSequence)) {
-            cursorPosition = charSequence.length();
-        }
+        int cursorPosition = editorText.getCursorPosition();
         int start = cursorPosition - composingText.length() - beforeText.length();
         int end = cursorPosition + afterText.length();
-        inputConnection.setComposingRegion(start, end);
-        inputConnection.commitText(text, 1);
+        editorText.setComposingRegion(start, end);
+        editorText.commitText(text, 1);
     }
 
     private void handleCharacter(int keyCode) {
@@ -120,7 +201,7 @@ public class InputConnectionManager {
             if (keyCode == '\n') {
                 sendKeyEvent(KeyEvent.KEYCODE_ENTER);
             } else {
-                inputConnection.commitText(String.valueOf((char) keyCode), 1);
+                editorText.commitText(String.valueOf((char) keyCode), 1);
             }
         } else {
             if (softKeyboard.isInputViewShown()) {
@@ -130,9 +211,9 @@ public class InputConnectionManager {
             }
             if (isAlphabet(keyCode) && softKeyboard.getPredictionOn()) {
                 composingText.append((char) keyCode);
-                inputConnection.setComposingText(composingText, 1);
+                editorText.setComposingText(composingText, 1);
             } else {
-                inputConnection.commitText(String.valueOf((char) keyCode), 1);
+                editorText.commitText(String.valueOf((char) keyCode), 1);
             }
         }
     }
@@ -141,7 +222,7 @@ public class InputConnectionManager {
         final int length = composingText.length();
         if (length > 0) {
             composingText.delete(length - 1, length);
-            inputConnection.setComposingText(composingText, 1);
+            editorText.setComposingText(composingText, 1);
         } else {
             sendKeyEvent(KeyEvent.KEYCODE_DEL);
             resetCursorPosition();
@@ -149,8 +230,7 @@ public class InputConnectionManager {
     }
 
     private void sendKeyEvent(int keyCode) {
-        inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
-        inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+        editorText.sendKeyEvent(keyCode);
     }
 
     /**
@@ -163,41 +243,14 @@ public class InputConnectionManager {
         candidate.append(beforeText)
                  .append(composingText)
                  .append(afterText);
-        if (candidate.length() > 0) {
-            UITask<String, List<String>> task =
-            new UITask<String, List<String>>(interfaceHandler) {
-                @Override
-                protected List<String> doInBackground(String... params) {
-                    List<String> result = new ArrayList<String>();
-                    try {
-                        IOrthosSession session =
-                        OrthosServiceManager.getInstance().getSession(params[0]);
-                        WordList wordList = session.nearest(params[1]);
-                        if (wordList.isEmpty()) {
-                            wordList = session.alternative(params[1]);
-                        }
-                        for (Word word : wordList) {
-                            String form = word.getForm();
-                            if (!result.contains(form)) {
-                                result.add(form);
-                            }
-                        }
-                    } catch (RemoteException e) {
-                        Log.d(TAG, "updateCandidates()", e);
-                    }
-                    return result;
-                }
-
-                @Override
-                protected void onPostExecute(List<String> result) {
-                    handler.updateSuggestion(result);
-                }
-            };
-            InputMethodSubtype subtype =
-            softKeyboard.getInputMethodManager().getCurrentInputMethodSubtype();
-            task.execute(subtype.getLocale(), candidate.toString());
+        final long generation = ++suggestionGeneration;
+        final String locale = getLocale();
+        if (candidate.length() > 0 && locale != null) {
+            suggestionScheduler.schedule(
+            new SuggestionRequest(generation, locale, candidate.toString()));
         } else {
-            interfaceHandler.updateSuggestion(null);
+            suggestionScheduler.cancel();
+            interfaceHandler.updateSuggestion(new SuggestionResult(generation, null));
         }
     }
 
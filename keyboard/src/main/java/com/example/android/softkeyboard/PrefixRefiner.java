@@ -0,0 +1,154 @@
+package com.example.android.softkeyboard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Refines locally the candidates of the previous composing word when the user keeps typing at
+ * its end. For every candidate it keeps the last row of the edit distance matrix between the
+ * typed word and the prefixes of the candidate, so a new character costs a single row per
+ * candidate. When too few good candidates survive, the caller must ask Orthos again and
+ * {@link #seed} the refiner with the new answer.
+ * This class is not thread-safe.
+ */
+public final class PrefixRefiner {
+    // Candidates farther than this from the typed word are discarded.
+    private static final int MAX_DISTANCE = 2;
+    // The local answer is used only when it has at least this many candidates...
+    private static final int MIN_CANDIDATES = 3;
+    // ...and the best of them is at most this far from the typed word.
+    private static final int MAX_BEST_DISTANCE = 1;
+
+    private String language;
+    private String word;
+    private final List<String> forms = new ArrayList<String>();
+    private final List<int[]> rows = new ArrayList<int[]>();
+    // Candidates of the last refinement, even when they were not good enough
+    private List<String> partial;
+
+    /**
+     * Start refining from the candidates obtained for a word.
+     */
+    public void seed(
+    @Nonnull final String language,
+    @Nonnull final String word,
+    @Nonnull final List<String> candidates) {
+        reset();
+        partial = null;
+        this.language = language;
+        this.word = word;
+        for (final String form : candidates) {
+            int[] row = initialRow(form);
+            for (int i = 0; i < word.length(); i++) {
+                row = nextRow(row, word.charAt(i), form);
+            }
+            forms.add(form);
+            rows.add(row);
+        }
+    }
+
+    public void reset() {
+        language = null;
+        word = null;
+        forms.clear();
+        rows.clear();
+    }
+
+    /**
+     * Returns the candidates for the word ordered by distance, or null when the word does not
+     * extend the previous one or the refined set is not good enough.
+     */
+    @Nullable
+    public List<String> refine(@Nonnull final String language, @Nonnull final String word) {
+        partial = null;
+        if (this.word == null
+                || !language.equals(this.language)
+                || word.length() <= this.word.length()
+                || !word.startsWith(this.word)) {
+            return null;
+        }
+        final List<String> survivors = new ArrayList<String>();
+        final List<int[]> survivorRows = new ArrayList<int[]>();
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < forms.size(); i++) {
+            final String form = forms.get(i);
+            int[] row = rows.get(i);
+            for (int j = this.word.length(); j < word.length(); j++) {
+                row = nextRow(row, word.charAt(j), form);
+            }
+            final int distance = prefixDistance(row);
+            if (distance <= MAX_DISTANCE) {
+                // Insertion sort keeps the order of Orthos among equal distances
+                int index = survivors.size();
+                while (index > 0 && prefixDistance(survivorRows.get(index - 1)) > distance) {
+                    index--;
+                }
+                survivors.add(index, form);
+                survivorRows.add(index, row);
+                bestDistance = Math.min(bestDistance, distance);
+            }
+        }
+        partial = survivors;
+        if (survivors.size() < MIN_CANDIDATES || bestDistance > MAX_BEST_DISTANCE) {
+            reset();
+            return null;
+        }
+        this.word = word;
+        forms.clear();
+        forms.addAll(survivors);
+        rows.clear();
+        rows.addAll(survivorRows);
+        return new ArrayList<String>(survivors);
+    }
+
+    /**
+     * Returns the candidates of the last refinement, even if they were not good enough to
+     * avoid a query, or null if there was no refinement since the last seed.
+     */
+    @Nullable
+    public List<String> getPartial() {
+        return partial == null ? null : new ArrayList<String>(partial);
+    }
+
+    /*
+     * Distances from the empty word to every prefix of the form
+     */
+    private static int[] initialRow(@Nonnull final String form) {
+        final int[] row = new int[form.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        return row;
+    }
+
+    /*
+     * Distances from the typed word plus one character to every prefix of the form
+     */
+    private static int[] nextRow(
+    @Nonnull final int[] previous,
+    final char code,
+    @Nonnull final String form) {
+        final int[] row = new int[previous.length];
+        final char lower = Character.toLowerCase(code);
+        row[0] = previous[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            final int cost = Character.toLowerCase(form.charAt(j - 1)) == lower ? 0 : 1;
+            row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+        }
+        return row;
+    }
+
+    /*
+     * Distance from the typed word to the closest prefix of the form
+     */
+    private static int prefixDistance(@Nonnull final int[] row) {
+        int distance = row[0];
+        for (int j = 1; j < row.length; j++) {
+            distance = Math.min(distance, row[j]);
+        }
+        return distance;
+    }
+}
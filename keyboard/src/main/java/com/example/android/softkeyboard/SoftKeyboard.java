@@ -85,13 +85,19 @@ implements KeyboardView.OnKeyboardActionListener {
 	public void onCreate() {
 		Log.d(TAG, "onCreate(): SoftKeyboard");
 		super.onCreate();
-		mUIHandler.onCreate();
 		mInputMethodManager = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
 		//mWordSeparators = getResources().getString(R.string.word_separators);
-		OrthosServiceManager.create(this);
+		OrthosServiceManager.create(this).warmUp(getCurrentLocale());
 		inputConnectionManager = new InputConnectionManager(this);
 	}
 
+	@Override
+	public void onDestroy() {
+		Log.d(TAG, "onDestroy(): SoftKeyboard");
+		inputConnectionManager.onDestroy();
+		super.onDestroy();
+	}
+
 	/**
 	 * This is the point where you can do all of your UI initialization. It is
 	 * called after creation and any configuration change.
@@ -178,6 +184,7 @@ implements KeyboardView.OnKeyboardActionListener {
 	@Override
 	public void onStartInput(EditorInfo attribute, boolean restarting) {
 		super.onStartInput(attribute, restarting);
+		inputConnectionManager.onStartEditor(attribute);
 
 		// Reset our state. We want to do this even if restarting, because
 		// the underlying state of the text editor could have changed in any
@@ -298,6 +305,13 @@ implements KeyboardView.OnKeyboardActionListener {
 	@Override
 	public void onCurrentInputMethodSubtypeChanged(InputMethodSubtype subtype) {
 		mInputView.setSubtypeOnSpaceKey(subtype);
+		inputConnectionManager.onSubtypeChanged(subtype.getLocale());
+		OrthosServiceManager.getInstance().warmUp(subtype.getLocale());
+	}
+
+	private String getCurrentLocale() {
+		final InputMethodSubtype subtype = mInputMethodManager.getCurrentInputMethodSubtype();
+		return subtype != null ? subtype.getLocale() : null;
 	}
 
 	/**
@@ -312,6 +326,7 @@ implements KeyboardView.OnKeyboardActionListener {
 	int candidatesStart,
 	int candidatesEnd) {
 		super.onUpdateSelection(oldStart, oldEnd, newStart, newEnd, candidatesStart, candidatesEnd);
+		inputConnectionManager.onUpdateSelection(newStart, newEnd, candidatesStart, candidatesEnd);
 		if (newStart != candidatesEnd || newEnd != candidatesEnd) {
 			inputConnectionManager.finishComposingText();
 		}
@@ -378,7 +393,7 @@ implements KeyboardView.OnKeyboardActionListener {
 			int caps = 0;
 			EditorInfo ei = getCurrentInputEditorInfo();
 			if (ei != null && ei.inputType != InputType.TYPE_NULL) {
-				caps = getCurrentInputConnection().getCursorCapsMode(attr.inputType);
+				caps = inputConnectionManager.getCursorCapsMode(attr.inputType);
 			}
 			mInputView.setShifted(mCapsLock || caps != 0);
 		}
@@ -414,6 +429,11 @@ implements KeyboardView.OnKeyboardActionListener {
 
 	public void setSuggestions(
 	CompletionInfo[] completions, boolean completion, boolean typedWordValid) {
+		setSuggestions(CandidatesView.ANY_GENERATION, completions, completion, typedWordValid);
+	}
+
+	public void setSuggestions(
+	long generation, CompletionInfo[] completions, boolean completion, boolean typedWordValid) {
 		mCompletions = completions;
 		if (completions != null && completions.length > 0) {
 			setCandidatesViewShown(true);
@@ -427,7 +447,7 @@ implements KeyboardView.OnKeyboardActionListener {
 					suggestions.add(completions[i].getText().toString());
 				}
 			}
-			mCandidatesView.setSuggestions(suggestions, completion, typedWordValid);
+			mCandidatesView.setSuggestions(generation, suggestions, completion, typedWordValid);
 		}
 	}
 
@@ -491,6 +511,7 @@ implements KeyboardView.OnKeyboardActionListener {
 	public void pickSuggestion(int index) {
 		if (mCompletionOn && mCompletions != null && index < mCompletions.length) {
 			CompletionInfo ci = mCompletions[index];
+			inputConnectionManager.flushEdits();
 			getCurrentInputConnection().commitCompletion(ci);
 			if (mCandidatesView != null) {
 				mCandidatesView.clear();
@@ -0,0 +1,76 @@
+package com.example.android.softkeyboard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides how long a suggestion query should wait before it is started. It tracks the interval
+ * between key presses and the latency of the recent queries of every language: while the user
+ * types in a burst and the queries are expensive, a query is delayed about one key interval so
+ * that the next key replaces it before any work is done. When the user pauses, or the answers
+ * come from the caches, queries start immediately. During a burst, words probably spelled
+ * correctly wait the longest delay, as the user is more likely to go on typing than to stop on
+ * them. The latency is tracked per language, which is per Orthos session since the sessions are
+ * pooled one per language.
+ * This class must be used from the UI thread.
+ */
+public final class SuggestionDebouncer {
+    // Intervals longer than this are pauses, not part of a typing burst.
+    private static final long BURST_INTERVAL = 300;
+    // Queries faster than this are not worth delaying.
+    private static final long MIN_LATENCY_TO_DEBOUNCE = 15;
+    // Weight of the last sample in the moving averages, as 1 / 2^EWMA_SHIFT.
+    private static final int EWMA_SHIFT = 2;
+
+    private final long maxDelay;
+    private long lastKeyTime = -1;
+    private long keyInterval = BURST_INTERVAL;
+    private final Map<String, Long> latencies = new HashMap<String, Long>();
+
+    public SuggestionDebouncer(final long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public void onKeyPressed(final long now) {
+        if (lastKeyTime >= 0) {
+            final long interval = now - lastKeyTime;
+            if (interval < BURST_INTERVAL) {
+                keyInterval = average(keyInterval, interval);
+            } else {
+                keyInterval = BURST_INTERVAL;
+            }
+        }
+        lastKeyTime = now;
+    }
+
+    public void onQueryCompleted(@Nonnull final String language, final long latency) {
+        final Long previous = latencies.get(language);
+        latencies.put(language, previous == null ? latency : average(previous, latency));
+    }
+
+    /**
+     * Returns the time the query for the language should wait before being started.
+     * @param knownWord whether the word is probably spelled correctly
+     */
+    public long getDelay(@Nonnull final String language, final long now, final boolean knownWord) {
+        if (lastKeyTime < 0 || now - lastKeyTime >= BURST_INTERVAL
+                || keyInterval >= BURST_INTERVAL) {
+            // The user paused
+            return 0;
+        }
+        if (knownWord) {
+            return maxDelay;
+        }
+        final Long latency = latencies.get(language);
+        if (latency == null || latency < MIN_LATENCY_TO_DEBOUNCE) {
+            return 0;
+        }
+        return Math.min(maxDelay, keyInterval + (keyInterval >> 1));
+    }
+
+    private static long average(final long average, final long sample) {
+        return average + ((sample - average) >> EWMA_SHIFT);
+    }
+}
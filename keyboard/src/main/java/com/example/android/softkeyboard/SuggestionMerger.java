@@ -0,0 +1,196 @@
+package com.example.android.softkeyboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.AccentIndex;
+
+/**
+ * Merges the candidates of several sources, e.g. the nearest and alternative answers of Orthos,
+ * the cache, the accent index and the fallback dictionary, into a single ranked list. Every
+ * form is kept once, with the best score of the sources that returned it: its edit distance to
+ * the typed word, weighted, plus its position in the source and the penalty of the source,
+ * less a bonus for every other source agreeing on it. The distance ignores case and accents,
+ * so that a missing accent is not an edit. Only the best forms are kept, with a heap of the
+ * maximum count, so merging is linear in the number of forms. Forms of the same score keep
+ * the order in which they were added.
+ */
+final class SuggestionMerger {
+    // Sources of candidates, the most reliable first
+    static final int SOURCE_NEAREST = 0;
+    static final int SOURCE_ALTERNATIVE = 1;
+    // Answers of Orthos already merged, e.g. from the cache
+    static final int SOURCE_CACHE = 2;
+    // Accented forms of a word typed without its accents, see AccentIndex
+    static final int SOURCE_ACCENT = 3;
+    static final int SOURCE_INFLECTION = 4;
+    static final int SOURCE_FALLBACK = 5;
+
+    // Added to the position of a form in its source, by source
+    private static final int[] PENALTIES = { 0, 1, 0, 2, 4, 8 };
+    // Subtracted for every other source that returned the same form
+    private static final int AGREEMENT_BONUS = 1;
+    // Added for every edit between the typed word and a form, so that a closer form beats a
+    // farther one a few positions ahead of it
+    private static final int DISTANCE_WEIGHT = 4;
+    // Distance counted at most, the forms farther away are ranked alike
+    static final int MAX_DISTANCE = SuggestionProvider.MAX_EDIT_DISTANCE + 1;
+
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(final Candidate a, final Candidate b) {
+            if (a.score != b.score) {
+                return a.score > b.score ? -1 : 1;
+            }
+            return a.order > b.order ? -1 : a.order < b.order ? 1 : 0;
+        }
+    };
+
+    private static final class Candidate {
+        final String form;
+        final int order;
+        // Weighted distance to the typed word, the same whatever the source
+        final int distanceScore;
+        int score;
+        int sources;
+
+        Candidate(
+        @Nonnull final String form,
+        final int order,
+        final int distanceScore,
+        final int score,
+        final int source) {
+            this.form = form;
+            this.order = order;
+            this.distanceScore = distanceScore;
+            this.score = distanceScore + score;
+            this.sources = 1 << source;
+        }
+    }
+
+    private final int maxCount;
+    // Typed word without case and accents, null to rank by position only
+    @Nullable
+    private final String foldedWord;
+    private final Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+    // Rows of the distance matrix, reused for every form
+    private int[] previousRow;
+    private int[] row;
+    private int[] transposedRow;
+
+    /**
+     * @param word the typed word the forms are ranked by their distance to, null for none
+     */
+    SuggestionMerger(@Nullable final String word, final int maxCount) {
+        this.maxCount = maxCount;
+        foldedWord = word != null ? fold(word) : null;
+    }
+
+    /**
+     * Add the forms of a source, in the order the source ranks them
+     */
+    @Nonnull
+    SuggestionMerger add(final int source, @Nullable final List<String> forms) {
+        if (forms == null) {
+            return this;
+        }
+        final int size = forms.size();
+        for (int i = 0; i < size; i++) {
+            final String form = forms.get(i);
+            final int score = i + PENALTIES[source];
+            final Candidate candidate = candidates.get(form);
+            if (candidate == null) {
+                candidates.put(form, new Candidate(form, candidates.size(),
+                        DISTANCE_WEIGHT * distance(form), score, source));
+            } else if ((candidate.sources & (1 << source)) == 0) {
+                candidate.sources |= 1 << source;
+                candidate.score = Math.min(candidate.score, candidate.distanceScore + score)
+                        - AGREEMENT_BONUS;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The best forms added, at most the maximum count, the best first
+     */
+    @Nonnull
+    List<String> merge() {
+        final PriorityQueue<Candidate> best =
+                new PriorityQueue<Candidate>(maxCount + 1, WORST_FIRST);
+        for (Candidate candidate : candidates.values()) {
+            best.offer(candidate);
+            if (best.size() > maxCount) {
+                best.poll();
+            }
+        }
+        final List<String> forms = new ArrayList<String>(best.size());
+        while (!best.isEmpty()) {
+            forms.add(best.poll().form);
+        }
+        Collections.reverse(forms);
+        return forms;
+    }
+
+    /*
+     * Optimal string alignment distance between the typed word and the form, case and accents
+     * aside, at most MAX_DISTANCE. Each row keeps the minimum of the row to stop early.
+     */
+    int distance(@Nonnull final String form) {
+        if (foldedWord == null) {
+            return 0;
+        }
+        final String a = foldedWord;
+        final String b = fold(form);
+        final int n = b.length();
+        if (Math.abs(a.length() - n) >= MAX_DISTANCE) {
+            return MAX_DISTANCE;
+        }
+        if (row == null || row.length < n + 1) {
+            previousRow = new int[n + 1];
+            row = new int[n + 1];
+            transposedRow = new int[n + 1];
+        }
+        for (int j = 0; j <= n; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            final int[] swap = transposedRow;
+            transposedRow = previousRow;
+            previousRow = row;
+            row = swap;
+            row[0] = i;
+            int rowMinimum = i;
+            final char ca = a.charAt(i - 1);
+            for (int j = 1; j <= n; j++) {
+                final char cb = b.charAt(j - 1);
+                int cost = previousRow[j - 1] + (ca == cb ? 0 : 1);
+                cost = Math.min(cost, previousRow[j] + 1);
+                cost = Math.min(cost, row[j - 1] + 1);
+                if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                    cost = Math.min(cost, transposedRow[j - 2] + 1);
+                }
+                row[j] = cost;
+                rowMinimum = Math.min(rowMinimum, cost);
+            }
+            if (rowMinimum >= MAX_DISTANCE) {
+                return MAX_DISTANCE;
+            }
+        }
+        return Math.min(row[n], MAX_DISTANCE);
+    }
+
+    @Nonnull
+    private static String fold(@Nonnull final String word) {
+        return AccentIndex.fold(word.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.softkeyboard;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.OrthosServiceManager;
+import es.lema.orthos.SuggestionCache;
+import es.lema.orthos.service.IOrthosQuerySession;
+import es.lema.orthos.service.ResultBuffer;
+import es.lema.orthos.service.SharedResult;
+import es.lema.orthos.service.WordList;
+
+/**
+ * Fills the {@link SuggestionCache} with the candidates of several words at once, e.g. the
+ * words around the cursor or the words of a pasted text, so that they are answered from the
+ * cache when the user edits them. The words not yet cached are sent in a single batch
+ * transaction per phase instead of one transaction per word, or through a region shared
+ * with the service for long batches. Prefetching needs the {@link IOrthosQuerySession}
+ * extension, older services are never queried word by word. The batches run on the background
+ * executor of the manager, never on the threads of the queries of the typed word.
+ */
+public class SuggestionPrefetcher {
+    private static final String TAG = SuggestionPrefetcher.class.getSimpleName();
+
+    // Most words prefetched for a single text, the ones closest to the cursor
+    static final int MAX_PREFETCH_WORDS = 32;
+    // Batches at least this long are read from a shared region instead of the transaction
+    private static final int MIN_SHARED_WORDS = 16;
+
+    /*
+     * Prefetch the candidates of the words in background, called from the main thread
+     */
+    public void prefetch(
+    @Nonnull final String locale,
+    @Nonnull final List<String> words) {
+        if (words.isEmpty()) {
+            return;
+        }
+        final OrthosServiceManager manager = OrthosServiceManager.getInstance();
+        final Future<Void> future = manager.getBackgroundExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws RemoteException {
+                fetch(manager, locale, words);
+                return null;
+            }
+        });
+        if (future == null) {
+            // The background threads are busy, the words are fetched on the next reset
+            Log.d(TAG, "prefetch(): dropped " + words.size() + " words");
+        }
+    }
+
+    private static void fetch(
+    @Nonnull final OrthosServiceManager manager,
+    @Nonnull final String locale,
+    @Nonnull final List<String> words) throws RemoteException {
+        final IOrthosQuerySession session = manager.getQuerySession(locale);
+        if (session == null) {
+            return;
+        }
+        final SuggestionCache cache = manager.getSuggestionCache();
+        final String language = OrthosServiceManager.getLanguage(locale);
+        final Set<String> missing = new LinkedHashSet<String>();
+        for (String word : words) {
+            if (word.length() > 0 && cache.get(language, word) == null) {
+                missing.add(word);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        final String[] batch = missing.toArray(new String[missing.size()]);
+        final int maxCount = CandidatesView.MAX_SUGGESTIONS;
+        final int maxDistance = SuggestionProvider.MAX_EDIT_DISTANCE;
+        List<List<String>> nearest = null;
+        List<List<String>> alternative = null;
+        if (batch.length >= MIN_SHARED_WORDS) {
+            nearest = getForms(session.nearestBatchShared(batch, maxCount, maxDistance),
+                    batch.length);
+            if (nearest != null) {
+                alternative = getForms(session.alternativeBatchShared(batch, maxCount, maxDistance),
+                        batch.length);
+            }
+        }
+        if (nearest == null || alternative == null) {
+            nearest = getForms(language, session.nearestBatch(batch, maxCount, maxDistance),
+                    batch.length);
+            alternative = getForms(language, session.alternativeBatch(batch, maxCount, maxDistance),
+                    batch.length);
+        }
+        if (nearest == null || alternative == null) {
+            Log.d(TAG, "fetch(): unexpected batch answer for " + batch.length + " words");
+            return;
+        }
+        for (int i = 0; i < batch.length; i++) {
+            final List<String> merged =
+                    SuggestionProvider.merge(batch[i], nearest.get(i), alternative.get(i));
+            cache.put(language, batch[i], merged);
+            manager.getAccentIndex().learn(language, merged);
+        }
+        Log.d(TAG, "fetch(): " + batch.length + " words " + cache);
+    }
+
+    /*
+     * The forms of every word of the batch, null if the answer does not match the batch
+     */
+    @Nullable
+    private static List<List<String>> getForms(
+    @Nonnull final String language,
+    @Nullable final List<WordList> wordLists,
+    final int count) {
+        if (wordLists == null || wordLists.size() != count) {
+            return null;
+        }
+        final List<List<String>> forms = new ArrayList<List<String>>(count);
+        for (WordList wordList : wordLists) {
+            forms.add(SuggestionProvider.getForms(language, wordList));
+        }
+        return forms;
+    }
+
+    /*
+     * The forms of every word of the batch read from the shared region, null if the service
+     * could not share it or the answer does not match the batch
+     */
+    @Nullable
+    private static List<List<String>> getForms(
+    @Nullable final SharedResult result,
+    final int count) {
+        if (result == null) {
+            return null;
+        }
+        try {
+            if (result.count() != count) {
+                return null;
+            }
+            final ResultBuffer buffer = result.open();
+            try {
+                final List<List<String>> forms = new ArrayList<List<String>>(count);
+                for (int i = 0; i < count; i++) {
+                    forms.add(SuggestionProvider.getForms(result.get(buffer, i)));
+                }
+                return forms;
+            } finally {
+                buffer.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "getForms(): unable to read the shared result", e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "getForms(): malformed shared result", e);
+            return null;
+        } finally {
+            try {
+                result.close();
+            } catch (IOException e) {
+                Log.d(TAG, "getForms()", e);
+            }
+        }
+    }
+
+    /*
+     * The last words of the text, the ones closest to the cursor when it ends there
+     */
+    @Nonnull
+    static List<String> lastWords(@Nonnull final List<String> words) {
+        final int start = Math.max(0, words.size() - MAX_PREFETCH_WORDS);
+        return new ArrayList<String>(words.subList(start, words.size()));
+    }
+
+    /*
+     * The first words of the text, the ones closest to the cursor when it starts there
+     */
+    @Nonnull
+    static List<String> firstWords(@Nonnull final List<String> words) {
+        final int end = Math.min(words.size(), MAX_PREFETCH_WORDS);
+        return new ArrayList<String>(words.subList(0, end));
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.android.softkeyboard;
+
+import android.content.res.AssetManager;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.LexiconFilter;
+import es.lema.orthos.OrthosAsyncClient;
+import es.lema.orthos.OrthosCallExecutor;
+import es.lema.orthos.OrthosServiceManager;
+import es.lema.orthos.SuggestionCache;
+import es.lema.orthos.inputmethod.common.Constants;
+import es.lema.orthos.service.CompactWordList;
+import es.lema.orthos.service.IOrthosQuerySession;
+import es.lema.orthos.service.IOrthosSession;
+import es.lema.orthos.service.Word;
+import es.lema.orthos.service.WordList;
+
+/**
+ * Computes the list of candidate forms for a {@link SuggestionRequest} querying the Orthos
+ * service. It is always called from the background threads of {@link SuggestionScheduler}.
+ * The nearest and alternative forms are queried concurrently, each on the sessions of its
+ * channel: the first non-empty answer is published as a partial result and the merged list is
+ * returned once both are known. The background thread waits for the queries at most
+ * {@link Constants#GET_SUGGESTED_WORDS_TIMEOUT} and then cancels the ones still running, as it
+ * does when the scheduler interrupts it for a newer request, and returns the forms of the phase
+ * that did answer. When the service implements
+ * {@link IOrthosQuerySession} the queries are bounded to the forms the strip can show, and
+ * sent through its asynchronous sessions when there are some. The candidates of the fallback
+ * dictionary are painted first and ranked after the answer of Orthos.
+ */
+public class SuggestionProvider {
+    private static final String TAG = SuggestionProvider.class.getSimpleName();
+
+    /*
+     * Receives the candidates known before the complete answer, on the background thread
+     */
+    public interface Listener {
+        void onPartialSuggestions(@Nonnull List<String> words);
+
+        /*
+         * The candidates returned hold the complete answer of Orthos, cached or queried, and
+         * not only a partial answer or the fallback candidates
+         */
+        void onAnswered();
+    }
+
+    // Forms more edits away from the typed word are not worth suggesting
+    static final int MAX_EDIT_DISTANCE = 2;
+    // Candidates taken from the fallback dictionary
+    private static final int MAX_FALLBACK_SUGGESTIONS = 8;
+
+    // Languages whose fallback dictionary seeded the accent index
+    private static final Set<String> seededLanguages =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Nullable
+    private final AssetManager assets;
+    private final PrefixRefiner prefixRefiner = new PrefixRefiner();
+
+    /**
+     * @param assets assets of the keyboard holding the fallback dictionaries, null if none
+     */
+    public SuggestionProvider(@Nullable final AssetManager assets) {
+        this.assets = assets;
+    }
+
+    /**
+     * Candidates of the dictionary bundled with the keyboard, empty if there is none. The
+     * dictionary is mapped on the first call, so it is never called from the UI thread.
+     */
+    @Nonnull
+    public List<String> getFallbackWords(@Nonnull final SuggestionRequest request) {
+        if (assets == null) {
+            return Collections.emptyList();
+        }
+        final String language = OrthosServiceManager.getLanguage(request.getLocale());
+        final FallbackDictionary dictionary = FallbackDictionary.get(assets, language);
+        if (dictionary == null) {
+            return Collections.emptyList();
+        }
+        if (seededLanguages.add(language)) {
+            // Accents are corrected from the first word, before Orthos is connected
+            OrthosServiceManager.getInstance().getAccentIndex().seed(
+                    language, dictionary.getWords());
+        }
+        return dictionary.suggest(request.getWord(), MAX_FALLBACK_SUGGESTIONS);
+    }
+
+    @Nonnull
+    public List<String> getSuggestions(
+    @Nonnull final SuggestionRequest request,
+    @Nonnull final Listener listener) {
+        final OrthosServiceManager manager = OrthosServiceManager.getInstance();
+        final SuggestionCache cache = manager.getSuggestionCache();
+        final String language = OrthosServiceManager.getLanguage(request.getLocale());
+        final List<String> fallbackWords = getFallbackWords(request);
+        List<String> result = cache.get(language, request.getWord());
+        if (result != null) {
+            prefixRefiner.seed(language, request.getWord(), result);
+            listener.onAnswered();
+            return rank(manager, request, result, null, fallbackWords);
+        }
+        result = prefixRefiner.refine(language, request.getWord());
+        if (result != null) {
+            listener.onAnswered();
+            return result;
+        }
+        // Shown until Orthos answers, then ranked with its answer
+        final List<String> accentForms = getAccentCorrections(manager, request, fallbackWords);
+        if (accentForms != null) {
+            Log.d(TAG, "getSuggestions(): " + manager.getAccentIndex());
+            listener.onPartialSuggestions(accentForms);
+        }
+        final TwoPhaseQuery query = query(manager, request,
+                accentForms != null && accentForms.size() == 1 ? accentForms : null, listener);
+        if (query.hasAnswered()) {
+            result = query.merge();
+            // Only complete answers are refined as the word grows
+            if (query.isComplete()) {
+                prefixRefiner.seed(language, request.getWord(), result);
+                listener.onAnswered();
+            }
+            Log.d(TAG, "getSuggestions(): " + cache);
+            return rank(manager, request, result, accentForms, fallbackWords);
+        }
+        result = prefixRefiner.getPartial();
+        Log.d(TAG, "getSuggestions(): incomplete, partial " + result);
+        if (result != null) {
+            return result;
+        }
+        if (accentForms == null) {
+            return fallbackWords;
+        }
+        return new SuggestionMerger(request.getWord(), CandidatesView.MAX_SUGGESTIONS)
+                .add(SuggestionMerger.SOURCE_ACCENT, accentForms)
+                .add(SuggestionMerger.SOURCE_FALLBACK, fallbackWords)
+                .merge();
+    }
+
+    /*
+     * The accented forms of a word typed without its accents, null unless the word is unknown
+     */
+    @Nullable
+    private static List<String> getAccentCorrections(
+    @Nonnull final OrthosServiceManager manager,
+    @Nonnull final SuggestionRequest request,
+    @Nonnull final List<String> fallbackWords) {
+        final String word = request.getWord();
+        if (fallbackWords.contains(word)) {
+            return null;
+        }
+        final LexiconFilter filter = manager.getLexiconFilter(request.getLocale());
+        if (filter != null && filter.mightContain(word)) {
+            return null;
+        }
+        return manager.getAccentIndex().lookup(
+                OrthosServiceManager.getLanguage(request.getLocale()), word);
+    }
+
+    /*
+     * Query both phases concurrently, returns the query with the phases that answered in time.
+     * The nearest phase is not queried when its forms are known. The calling thread waits for
+     * the phases at most until the deadline, then cancels the ones still running, and so does it
+     * when it is interrupted.
+     */
+    @Nonnull
+    private static TwoPhaseQuery query(
+    @Nonnull final OrthosServiceManager manager,
+    @Nonnull final SuggestionRequest request,
+    @Nullable final List<String> nearestForms,
+    @Nonnull final Listener listener) {
+        final OrthosCallExecutor callExecutor = manager.getCallExecutor();
+        final long deadline = SystemClock.uptimeMillis() + Constants.GET_SUGGESTED_WORDS_TIMEOUT;
+        final TwoPhaseQuery query = new TwoPhaseQuery(manager, request);
+        if (nearestForms != null) {
+            manager.getAccentIndex().onQuerySkipped();
+            query.complete(OrthosServiceManager.CHANNEL_NEAREST, nearestForms);
+        } else {
+            query.start(OrthosServiceManager.CHANNEL_NEAREST);
+        }
+        query.start(OrthosServiceManager.CHANNEL_ALTERNATIVE);
+        try {
+            for (int i = 0; i < 2; i++) {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                if (!query.awaitPhase(Math.max(remaining, 0))) {
+                    callExecutor.onTimeout();
+                    query.cancel();
+                    return query;
+                }
+                if (i == 0) {
+                    final List<String> partial = query.merge();
+                    if (!partial.isEmpty()) {
+                        listener.onPartialSuggestions(partial);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // The request was replaced or abandoned, see SuggestionScheduler
+            query.cancel();
+            Thread.currentThread().interrupt();
+        }
+        return query;
+    }
+
+    /*
+     * Nearest and alternative forms of a word, queried concurrently on the sessions of their
+     * channels, or sent to their asynchronous sessions. The merged answer is cached as soon as
+     * both queries return.
+     */
+    private static final class TwoPhaseQuery {
+        private final OrthosServiceManager manager;
+        private final SuggestionRequest request;
+        // Channels of the phases already answered, failed or not
+        private final BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+        // Futures of the phases started, only used by the calling thread
+        private final List<Future<?>> futures = new ArrayList<Future<?>>(2);
+        private List<String> nearest;
+        private List<String> alternative;
+        private int pending = 2;
+        private boolean failed;
+
+        TwoPhaseQuery(
+        @Nonnull final OrthosServiceManager manager,
+        @Nonnull final SuggestionRequest request) {
+            this.manager = manager;
+            this.request = request;
+        }
+
+        /*
+         * Send the phase to the asynchronous session of its channel, or run it on a thread of
+         * the executor if the service has none
+         */
+        void start(final int channel) {
+            OrthosAsyncClient client = null;
+            try {
+                client = manager.getAsyncClient(request.getLocale(), channel);
+            } catch (RemoteException e) {
+                Log.d(TAG, "start(): no asynchronous session #" + channel, e);
+            }
+            if (client != null) {
+                send(client, channel);
+            } else {
+                submit(manager.getCallExecutor(), channel);
+            }
+        }
+
+        /*
+         * Run the phase on a thread of the executor, blocked until the service answers
+         */
+        private void submit(@Nonnull final OrthosCallExecutor callExecutor, final int channel) {
+            final Future<Void> future = callExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    List<String> forms = null;
+                    try {
+                        forms = query(channel, request.getWord());
+                    } catch (RemoteException e) {
+                        Log.d(TAG, "submit(): #" + channel, e);
+                    } finally {
+                        complete(channel, forms);
+                    }
+                    return null;
+                }
+            });
+            if (future == null) {
+                // Every binder thread is busy
+                complete(channel, null);
+            } else {
+                futures.add(future);
+            }
+        }
+
+        /*
+         * Send the phase to the asynchronous session, completed from a binder thread
+         */
+        private void send(@Nonnull final OrthosAsyncClient client, final int channel) {
+            final OrthosAsyncClient.Listener listener = new OrthosAsyncClient.Listener() {
+                @Override
+                public void onDone(@Nonnull final Future<WordList> future) {
+                    List<String> forms = null;
+                    try {
+                        forms = getForms(language(), future.get());
+                    } catch (ExecutionException e) {
+                        Log.d(TAG, "send(): #" + channel, e.getCause());
+                    } catch (CancellationException e) {
+                        Log.d(TAG, "send(): #" + channel + " cancelled");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        complete(channel, forms);
+                    }
+                }
+            };
+            if (channel == OrthosServiceManager.CHANNEL_NEAREST) {
+                futures.add(client.nearest(request.getWord(),
+                        CandidatesView.MAX_SUGGESTIONS, MAX_EDIT_DISTANCE, listener));
+            } else {
+                futures.add(client.alternative(request.getWord(),
+                        CandidatesView.MAX_SUGGESTIONS, MAX_EDIT_DISTANCE, listener));
+            }
+        }
+
+        /*
+         * Cancel the phases still running, in the service for the asynchronous sessions, and
+         * interrupting their binder thread otherwise
+         */
+        void cancel() {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        /*
+         * Wait for the next phase to complete, returns false if none did in time
+         */
+        boolean awaitPhase(final long timeoutMillis) throws InterruptedException {
+            return completed.poll(timeoutMillis, TimeUnit.MILLISECONDS) != null;
+        }
+
+        /*
+         * Whether some phase answered, even if the other did not
+         */
+        synchronized boolean hasAnswered() {
+            return nearest != null || alternative != null;
+        }
+
+        /*
+         * Whether both phases answered
+         */
+        synchronized boolean isComplete() {
+            return pending == 0 && !failed;
+        }
+
+        @Nonnull
+        private List<String> query(final int channel, @Nonnull final String word)
+                throws RemoteException {
+            final boolean nearest = channel == OrthosServiceManager.CHANNEL_NEAREST;
+            final IOrthosQuerySession querySession =
+                    manager.getQuerySession(request.getLocale(), channel);
+            if (querySession != null) {
+                try {
+                    final CompactWordList forms = nearest
+                            ? querySession.nearestCompact(word, CandidatesView.MAX_SUGGESTIONS, MAX_EDIT_DISTANCE)
+                            : querySession.alternativeCompact(word, CandidatesView.MAX_SUGGESTIONS, MAX_EDIT_DISTANCE);
+                    if (forms != null) {
+                        return getForms(forms);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Malformed answer, asked again to the plain session
+                    Log.e(TAG, "query(): #" + channel, e);
+                }
+            }
+            final IOrthosSession session = manager.getSession(request.getLocale(), channel);
+            return getForms(language(),
+                    nearest ? session.nearest(word) : session.alternative(word));
+        }
+
+        @Nonnull
+        private String language() {
+            return OrthosServiceManager.getLanguage(request.getLocale());
+        }
+
+        /*
+         * Record the forms of a phase, null if it failed, and cache the merged answer once both
+         * phases answered
+         */
+        synchronized void complete(final int channel, @Nullable final List<String> forms) {
+            if (channel == OrthosServiceManager.CHANNEL_NEAREST) {
+                nearest = forms;
+            } else {
+                alternative = forms;
+            }
+            failed |= forms == null;
+            if (--pending == 0 && !failed) {
+                final String language = OrthosServiceManager.getLanguage(request.getLocale());
+                final List<String> merged = merge();
+                manager.getSuggestionCache().put(language, request.getWord(), merged);
+                manager.getAccentIndex().learn(language, merged);
+                // A word spelled correctly is its own nearest form
+                final LexiconFilter filter = manager.getLexiconFilter(request.getLocale());
+                if (filter != null) {
+                    filter.learn(request.getWord(), nearest.contains(request.getWord()));
+                }
+            }
+            completed.offer(channel);
+        }
+
+        /*
+         * The nearest and alternative forms answered so far, ranked together
+         */
+        @Nonnull
+        synchronized List<String> merge() {
+            return SuggestionProvider.merge(request.getWord(), nearest, alternative);
+        }
+    }
+
+    /*
+     * The nearest and alternative forms of the word ranked together, at most the count shown by
+     * the candidates view
+     */
+    @Nonnull
+    static List<String> merge(
+    @Nonnull final String word,
+    @Nullable final List<String> nearest,
+    @Nullable final List<String> alternative) {
+        return new SuggestionMerger(word, CandidatesView.MAX_SUGGESTIONS)
+                .add(SuggestionMerger.SOURCE_NEAREST, nearest)
+                .add(SuggestionMerger.SOURCE_ALTERNATIVE, alternative)
+                .merge();
+    }
+
+    /*
+     * The forms decoded lazily, skipping the lemmas without creating the words
+     * @throws IllegalArgumentException if the words are malformed
+     */
+    @Nonnull
+    static List<String> getForms(@Nonnull final CompactWordList wordList) {
+        final Set<String> forms = new LinkedHashSet<String>(wordList.size());
+        for (String form : wordList.forms()) {
+            forms.add(form);
+        }
+        return new ArrayList<String>(forms);
+    }
+
+    /*
+     * The forms of the words, their lemmas feed the inflection cache
+     */
+    @Nonnull
+    static List<String> getForms(
+    @Nonnull final String language,
+    @Nullable final WordList wordList) {
+        final Set<String> forms = new LinkedHashSet<String>();
+        if (wordList != null) {
+            for (Word word : wordList) {
+                forms.add(word.getForm());
+            }
+            OrthosServiceManager.getInstance().getInflectionCache().learn(language, wordList);
+        }
+        return new ArrayList<String>(forms);
+    }
+
+    /*
+     * The merged answer of Orthos ranked with the accent corrections, the other known
+     * inflections of the word and the candidates of the fallback dictionary
+     */
+    @Nonnull
+    private static List<String> rank(
+    @Nonnull final OrthosServiceManager manager,
+    @Nonnull final SuggestionRequest request,
+    @Nonnull final List<String> forms,
+    @Nullable final List<String> accentForms,
+    @Nonnull final List<String> fallbackWords) {
+        final String language = OrthosServiceManager.getLanguage(request.getLocale());
+        final List<String> inflections =
+                manager.getInflectionCache().getInflections(language, request.getWord());
+        if (accentForms == null && inflections.isEmpty() && fallbackWords.isEmpty()) {
+            return forms;
+        }
+        return new SuggestionMerger(request.getWord(), CandidatesView.MAX_SUGGESTIONS)
+                .add(SuggestionMerger.SOURCE_CACHE, forms)
+                .add(SuggestionMerger.SOURCE_ACCENT, accentForms)
+                .add(SuggestionMerger.SOURCE_INFLECTION, inflections)
+                .add(SuggestionMerger.SOURCE_FALLBACK, fallbackWords)
+                .merge();
+    }
+}
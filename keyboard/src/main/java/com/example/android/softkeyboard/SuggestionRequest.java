@@ -0,0 +1,43 @@
+package com.example.android.softkeyboard;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable description of a suggestion query: the subtype locale and the word around the
+ * cursor that the candidates should be computed for. The generation grows with every change
+ * of the composing state or of the editor, so newer requests always have higher generations.
+ */
+public final class SuggestionRequest {
+
+    private final long generation;
+    private final String locale;
+    private final String word;
+
+    public SuggestionRequest(
+    final long generation,
+    @Nonnull final String locale,
+    @Nonnull final String word) {
+        this.generation = generation;
+        this.locale = locale;
+        this.word = word;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Nonnull
+    public String getLocale() {
+        return locale;
+    }
+
+    @Nonnull
+    public String getWord() {
+        return word;
+    }
+
+    @Override
+    public String toString() {
+        return generation + "/" + locale + ":" + word;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.android.softkeyboard;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Candidates computed for a {@link SuggestionRequest}, stamped with the generation of the
+ * request so that the UI can drop answers older than the ones already shown. A request may
+ * produce several results: partial ones, shown as soon as they are available, followed by a
+ * complete one that replaces them in place.
+ */
+public final class SuggestionResult {
+
+    private final long generation;
+    @Nullable
+    private final List<String> words;
+    private final boolean complete;
+
+    public SuggestionResult(final long generation, @Nullable final List<String> words) {
+        this(generation, words, true);
+    }
+
+    public SuggestionResult(
+    final long generation,
+    @Nullable final List<String> words,
+    final boolean complete) {
+        this.generation = generation;
+        this.words = words;
+        this.complete = complete;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Nullable
+    public List<String> getWords() {
+        return words;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+}
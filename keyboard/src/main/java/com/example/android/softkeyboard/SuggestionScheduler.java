@@ -0,0 +1,261 @@
+package com.example.android.softkeyboard;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.LexiconFilter;
+import es.lema.orthos.OrthosServiceManager;
+
+/**
+ * Schedules the background queries that fill the suggestion strip of the current editor.
+ * At most one query is in flight and one is pending: a newer request replaces the pending
+ * one, which is never started, and cancels the one in flight, whose result is then dropped.
+ * The start of the pending request may be delayed by the {@link SuggestionDebouncer}, but not
+ * its first paint: the candidates of the fallback dictionary are looked up at once on a thread
+ * of their own and shown until the query answers.
+ * When the Orthos service becomes ready again the latest request is replayed unless Orthos
+ * answered it completely: the {@link ReplayListener} requests the candidates again with a new
+ * generation, as the failed query already completed the generation of the latest request.
+ * The lemmas of the inflection cache are expanded only after {@link #EXPANSION_DELAY} without
+ * a key press, so that their queries never compete with the ones of the user.
+ * All methods must be called from the UI thread.
+ */
+public final class SuggestionScheduler implements OrthosServiceManager.ConnectionListener {
+    private static final String TAG = SuggestionScheduler.class.getSimpleName();
+
+    // Inactivity of the user after which the inflection cache is expanded, in milliseconds
+    static final long EXPANSION_DELAY = 5000;
+
+    /**
+     * Requests the candidates of the current composing state again
+     */
+    public interface ReplayListener {
+        void onReplay();
+    }
+
+    private final UIHandler handler;
+    private final OrthosServiceManager manager;
+    private final SuggestionProvider provider;
+    private final ExecutorService executor;
+    private final ExecutorService firstPaintExecutor;
+    private final SuggestionDebouncer debouncer;
+    private final ReplayListener replayListener;
+    @Nullable
+    private SuggestionTask running;
+    @Nullable
+    private SuggestionRequest pending;
+    // Uptime at which the pending request may be started
+    private long pendingStartTime;
+    // Last request scheduled for the current composing state, replayed on reconnection, null
+    // once Orthos answered it completely
+    @Nullable
+    private SuggestionRequest latest;
+    // Generation of the latest request, whose first paint is still wanted, none after a cancel
+    private volatile long firstPaintGeneration = Long.MAX_VALUE;
+
+    private final Runnable startPendingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (running == null) {
+                startPending();
+            }
+        }
+    };
+
+    // Expands the lemmas of the inflection cache once the user stopped typing
+    private final Runnable expandRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (running == null && pending == null) {
+                manager.expandInflections();
+            }
+        }
+    };
+
+    public SuggestionScheduler(
+    @Nonnull final UIHandler handler,
+    @Nonnull final SuggestionProvider provider,
+    @Nonnull final SuggestionDebouncer debouncer,
+    @Nonnull final ReplayListener replayListener) {
+        this.handler = handler;
+        manager = OrthosServiceManager.getInstance();
+        this.provider = provider;
+        this.debouncer = debouncer;
+        this.replayListener = replayListener;
+        executor = Executors.newSingleThreadExecutor();
+        firstPaintExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    public void onKeyPressed() {
+        debouncer.onKeyPressed(SystemClock.uptimeMillis());
+        handler.removeCallbacks(expandRunnable);
+        handler.postDelayed(expandRunnable, EXPANSION_DELAY);
+    }
+
+    /**
+     * Request the candidates for a new composing word. The request is started when the query
+     * in flight, if any, returns and the debounce delay has elapsed.
+     */
+    public void schedule(@Nonnull final SuggestionRequest request) {
+        final long now = SystemClock.uptimeMillis();
+        final LexiconFilter filter = manager.getLexiconFilter(request.getLocale());
+        final boolean knownWord = filter != null && filter.mightContain(request.getWord());
+        final long delay = debouncer.getDelay(
+                OrthosServiceManager.getLanguage(request.getLocale()), now, knownWord);
+        paintFirst(request, knownWord);
+        pending = request;
+        latest = request;
+        pendingStartTime = now + delay;
+        handler.removeCallbacks(startPendingRunnable);
+        if (running != null) {
+            // Interrupted, so that the provider cancels the queries it waits for
+            running.cancel(true);
+        }
+        if (delay > 0) {
+            handler.postDelayed(startPendingRunnable, delay);
+        } else if (running == null) {
+            startPending();
+        }
+    }
+
+    /**
+     * Drop the pending request and abandon the one in flight, e.g. when the editor changes.
+     */
+    public void cancel() {
+        pending = null;
+        latest = null;
+        firstPaintGeneration = Long.MAX_VALUE;
+        handler.removeCallbacks(startPendingRunnable);
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    @Override
+    public void onServiceReady() {
+        if (latest != null && pending == null) {
+            Log.d(TAG, "onServiceReady(): replay " + latest);
+            replayListener.onReplay();
+        }
+    }
+
+    public void shutdown() {
+        handler.removeCallbacks(expandRunnable);
+        cancel();
+        executor.shutdownNow();
+        firstPaintExecutor.shutdownNow();
+    }
+
+    /*
+     * Show the candidates of the fallback dictionary, or the word itself if it is known, until
+     * the query answers. Requests replaced before their lookup starts are skipped.
+     */
+    private void paintFirst(@Nonnull final SuggestionRequest request, final boolean knownWord) {
+        if (firstPaintExecutor.isShutdown()) {
+            return;
+        }
+        firstPaintGeneration = request.getGeneration();
+        firstPaintExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.getGeneration() != firstPaintGeneration) {
+                    return;
+                }
+                List<String> words = provider.getFallbackWords(request);
+                if (words.isEmpty() && knownWord) {
+                    // Shown until the alternatives arrive, the query is deprioritised
+                    words = Collections.singletonList(request.getWord());
+                }
+                if (!words.isEmpty()) {
+                    handler.updateSuggestion(
+                            new SuggestionResult(request.getGeneration(), words, false));
+                }
+            }
+        });
+    }
+
+    private void startPending() {
+        final SuggestionRequest request = pending;
+        pending = null;
+        if (request == null || executor.isShutdown()) {
+            return;
+        }
+        running = new SuggestionTask(handler);
+        running.executeOnExecutor(executor, request);
+    }
+
+    private void onTaskFinished(@Nonnull final SuggestionTask task) {
+        if (task == running) {
+            running = null;
+            if (SystemClock.uptimeMillis() >= pendingStartTime) {
+                startPending();
+            }
+        }
+    }
+
+    private final class SuggestionTask
+    extends UITask<SuggestionRequest, SuggestionResult, SuggestionResult>
+    implements SuggestionProvider.Listener {
+
+        private String language;
+        private long latency;
+        private long generation;
+        // Whether Orthos answered the request completely, read after the background work
+        private volatile boolean answered;
+
+        SuggestionTask(final UIHandler handler) {
+            super(handler);
+        }
+
+        @Override
+        protected SuggestionResult doInBackground(SuggestionRequest... params) {
+            final SuggestionRequest request = params[0];
+            final long start = SystemClock.uptimeMillis();
+            generation = request.getGeneration();
+            final SuggestionResult result = new SuggestionResult(
+                    generation, provider.getSuggestions(request, this));
+            language = OrthosServiceManager.getLanguage(request.getLocale());
+            latency = SystemClock.uptimeMillis() - start;
+            return result;
+        }
+
+        @Override
+        public void onPartialSuggestions(List<String> words) {
+            publishProgress(new SuggestionResult(generation, words, false));
+        }
+
+        @Override
+        public void onAnswered() {
+            answered = true;
+        }
+
+        @Override
+        protected void onProgressUpdate(SuggestionResult... values) {
+            handler.updateSuggestion(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(SuggestionResult result) {
+            debouncer.onQueryCompleted(language, latency);
+            if (answered && latest != null && latest.getGeneration() == generation) {
+                // Nothing left to replay
+                latest = null;
+            }
+            handler.updateSuggestion(result);
+            onTaskFinished(this);
+        }
+
+        @Override
+        protected void onCancelled() {
+            onTaskFinished(this);
+        }
+    }
+}
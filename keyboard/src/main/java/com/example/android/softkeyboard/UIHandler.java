@@ -1,7 +1,7 @@
 package com.example.android.softkeyboard;
 
-import android.content.res.Resources;
 import android.os.Message;
+import android.util.Log;
 import android.view.inputmethod.CompletionInfo;
 
 import java.util.ArrayList;
@@ -12,24 +12,19 @@ import javax.annotation.Nonnull;
 import es.lema.orthos.inputmethod.utils.LeakGuardHandlerWrapper;
 
 public final class UIHandler extends LeakGuardHandlerWrapper<SoftKeyboard> {
+    private static final String TAG = UIHandler.class.getSimpleName();
 
     private static final int MSG_UPDATE_SUGGESTION = 0;
 
-    private int delayToUpdateSuggestions;
+    // Generation of the last suggestions shown and number of older results dropped
+    private long lastGeneration = -1;
+    private boolean lastComplete;
+    private int staleSuggestionCount;
 
     public UIHandler(@Nonnull final SoftKeyboard softKeyboard) {
         super(softKeyboard);
     }
 
-    public void onCreate() {
-        final SoftKeyboard softKeyboard = getOwnerInstance();
-        if (softKeyboard == null) {
-            return;
-        }
-        final Resources resources = softKeyboard.getResources();
-        delayToUpdateSuggestions = resources.getInteger(R.integer.delay_to_update_suggestions);
-    }
-
     @Override
     public void handleMessage(final Message message) {
         final SoftKeyboard softKeyboard = getOwnerInstance();
@@ -38,8 +33,16 @@ public final class UIHandler extends LeakGuardHandlerWrapper<SoftKeyboard> {
         }
         switch (message.what) {
             case MSG_UPDATE_SUGGESTION:
-                cancelUpdateSuggestion();
-                List<String> wordList = (List<String>) message.obj;
+                SuggestionResult result = (SuggestionResult) message.obj;
+                if (result.getGeneration() < lastGeneration
+                        || (result.getGeneration() == lastGeneration && lastComplete)) {
+                    staleSuggestionCount++;
+                    Log.d(TAG, "stale suggestions dropped: " + staleSuggestionCount);
+                    break;
+                }
+                lastGeneration = result.getGeneration();
+                lastComplete = result.isComplete();
+                List<String> wordList = result.getWords();
                 CompletionInfo[] completions = null;
                 if (wordList != null && !wordList.isEmpty()) {
                     List<CompletionInfo> list = new ArrayList<CompletionInfo>();
@@ -48,14 +51,14 @@ public final class UIHandler extends LeakGuardHandlerWrapper<SoftKeyboard> {
                     }
                     completions = list.toArray(new CompletionInfo[list.size()]);
                 }
-                softKeyboard.setSuggestions(completions, false, false);
+                softKeyboard.setSuggestions(lastGeneration, completions, false, false);
                 break;
         }
     }
 
-    public void updateSuggestion(List<String> wordList) {
-        Message message = obtainMessage(MSG_UPDATE_SUGGESTION, 0, 0, wordList);
-        sendMessageDelayed(message, delayToUpdateSuggestions);
+    public void updateSuggestion(@Nonnull SuggestionResult result) {
+        Message message = obtainMessage(MSG_UPDATE_SUGGESTION, 0, 0, result);
+        sendMessage(message);
     }
 
     public void cancelUpdateSuggestion() {
@@ -65,4 +68,8 @@ public final class UIHandler extends LeakGuardHandlerWrapper<SoftKeyboard> {
     public boolean hasPendingUpdateSuggestions() {
         return hasMessages(MSG_UPDATE_SUGGESTION);
     }
+
+    public int getStaleSuggestionCount() {
+        return staleSuggestionCount;
+    }
 }
@@ -2,8 +2,8 @@ package com.example.android.softkeyboard;
 
 import android.os.AsyncTask;
 
-public abstract class UITask<Params, Result>
-extends AsyncTask<Params, Integer, Result> {
+public abstract class UITask<Params, Progress, Result>
+extends AsyncTask<Params, Progress, Result> {
 
 	protected UIHandler handler = null;
 
@@ -21,7 +21,7 @@ extends AsyncTask<Params, Integer, Result> {
 	{}
 
 	@Override
-    protected void onProgressUpdate(Integer... values)
+    protected void onProgressUpdate(Progress... values)
 	{}
 
 	@Override
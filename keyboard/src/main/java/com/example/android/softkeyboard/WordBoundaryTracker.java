@@ -0,0 +1,82 @@
+package com.example.android.softkeyboard;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.inputmethod.common.WordSeparators;
+
+/**
+ * Tracks the word under the cursor, split in its parts before and after the cursor, from the
+ * text of the {@link EditorTextMirror}. The word is found by scanning the characters next to
+ * the cursor up to the first separators, never the whole window, and is reused as is while
+ * only the cursor moves inside it.
+ */
+final class WordBoundaryTracker {
+    private final EditorTextMirror editorText;
+    // Absolute offset of the word, -1 if the cursor offset was not known when it was found
+    private int wordStart = -1;
+    private String word = "";
+    private int textVersion = -1;
+    private String before = "";
+    private String after = "";
+    private int scanCount;
+    private int reuseCount;
+
+    WordBoundaryTracker(@Nonnull final EditorTextMirror editorText) {
+        this.editorText = editorText;
+    }
+
+    /**
+     * Find the word under the cursor after an edit or a selection change
+     */
+    void update() {
+        final int version = editorText.getTextVersion();
+        final int cursor = editorText.getSelectionStart();
+        if (version == textVersion && wordStart >= 0
+                && cursor >= wordStart && cursor <= wordStart + word.length()) {
+            // Only the cursor moved inside the word
+            before = word.substring(0, cursor - wordStart);
+            after = word.substring(cursor - wordStart);
+            reuseCount++;
+            return;
+        }
+        final WordSeparators separators = editorText.getWordSeparators();
+        final int beforeLength = editorText.getBeforeLength();
+        int start = 0;
+        while (start < beforeLength && !separators.isSeparator(editorText.charBefore(start + 1))) {
+            start++;
+        }
+        final int afterLength = editorText.getAfterLength();
+        int end = 0;
+        while (end < afterLength && !separators.isSeparator(editorText.charAfter(end))) {
+            end++;
+        }
+        before = editorText.getTextBeforeCursor(start);
+        after = editorText.getTextAfterCursor(end);
+        word = before + after;
+        wordStart = cursor >= 0 ? cursor - start : -1;
+        textVersion = editorText.getTextVersion();
+        scanCount++;
+    }
+
+    /**
+     * The part of the word before the cursor
+     */
+    @Nonnull
+    String getTextBefore() {
+        return before;
+    }
+
+    /**
+     * The part of the word after the cursor
+     */
+    @Nonnull
+    String getTextAfter() {
+        return after;
+    }
+
+    @Override
+    public String toString() {
+        return "WordBoundaryTracker[word=" + word + " start=" + wordStart
+                + " scans=" + scanCount + " reuses=" + reuseCount + "]";
+    }
+}
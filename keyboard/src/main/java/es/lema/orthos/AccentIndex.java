@@ -0,0 +1,172 @@
+package es.lema.orthos;
+
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the forms returned by Orthos keyed by language and accent-folded spelling, to
+ * correct a missing accent, e.g. "cancion" for "canción", without querying the service. Only
+ * the accents of the long-press alternatives of the layout are folded, "ñ" has its own key.
+ * The index is seeded with the accented words of the fallback dictionaries, so that it works
+ * before Orthos is connected, then learned from the answers of Orthos. It is bounded, the least
+ * used keys are forgotten first. Its corrections are shown until Orthos answers and ranked with
+ * the answer. When the index knows a single accented form of the word, the service is not asked
+ * for its nearest forms. It is safe to use from any thread.
+ */
+public final class AccentIndex {
+    public static final int DEFAULT_MAX_KEYS = 16 * 1024;
+
+    private static final String ACCENTED = "áéíóúüçÁÉÍÓÚÜÇ";
+    private static final String FOLDED = "aeiouucAEIOUUC";
+
+    // Every form seen for a folded spelling, the lists are replaced instead of modified
+    private final LruCache<String, List<String>> index;
+    private final AtomicInteger lookupCount = new AtomicInteger();
+    private final AtomicInteger answerCount = new AtomicInteger();
+    private final AtomicInteger skippedQueryCount = new AtomicInteger();
+
+    public AccentIndex(final int maxKeys) {
+        index = new LruCache<String, List<String>>(maxKeys);
+    }
+
+    /**
+     * Remove the accents of the word, in a single pass over its characters
+     */
+    @Nonnull
+    public static String fold(@Nonnull final String word) {
+        char[] folded = null;
+        for (int i = 0; i < word.length(); i++) {
+            final int accent = ACCENTED.indexOf(word.charAt(i));
+            if (accent >= 0) {
+                if (folded == null) {
+                    folded = word.toCharArray();
+                }
+                folded[i] = FOLDED.charAt(accent);
+            }
+        }
+        return folded != null ? new String(folded) : word;
+    }
+
+    /**
+     * Record forms known to exist in the language
+     */
+    public void learn(@Nonnull final String language, @Nonnull final Collection<String> forms) {
+        for (String form : forms) {
+            final String key = key(language, fold(form));
+            synchronized (index) {
+                final List<String> known = index.get(key);
+                if (known == null) {
+                    index.put(key, Collections.singletonList(form));
+                } else if (!known.contains(form)) {
+                    final List<String> updated = new ArrayList<String>(known.size() + 1);
+                    updated.addAll(known);
+                    updated.add(form);
+                    index.put(key, Collections.unmodifiableList(updated));
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the words of a word list that have accents, with their spelling without accents
+     * when the list has it too, so that a word typed without accents is never corrected if it
+     * exists as typed
+     */
+    public void seed(@Nonnull final String language, @Nonnull final Collection<String> words) {
+        final Set<String> known = new HashSet<String>(words);
+        for (String word : words) {
+            final String folded = fold(word);
+            if (!folded.equals(word)) {
+                learn(language, known.contains(folded)
+                        ? Arrays.asList(folded, word) : Collections.singletonList(word));
+            }
+        }
+    }
+
+    /**
+     * Returns the accented forms of a word typed without accents, or null if the word has
+     * accents, is itself a known form or no accented form of it is known. The forms of a
+     * capitalized word, e.g. at the start of a sentence, are those of its lower case spelling
+     * capitalized, unless the capitalized spelling has forms of its own.
+     */
+    @Nullable
+    public List<String> lookup(@Nonnull final String language, @Nonnull final String word) {
+        lookupCount.incrementAndGet();
+        if (word.isEmpty() || !fold(word).equals(word)) {
+            return null;
+        }
+        List<String> forms = index.get(key(language, word));
+        if (forms == null) {
+            final String lower = word.toLowerCase(Locale.ROOT);
+            if (!lower.equals(word) && lower.substring(1).equals(word.substring(1))) {
+                forms = capitalize(index.get(key(language, lower)));
+            }
+        }
+        if (forms == null || forms.contains(word)) {
+            return null;
+        }
+        answerCount.incrementAndGet();
+        return forms;
+    }
+
+    public int getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * Number of lookups answered, each one a correction shown before the service answers
+     */
+    public int getAnswerCount() {
+        return answerCount.get();
+    }
+
+    /**
+     * Record a query of the service skipped because the index answered it
+     */
+    public void onQuerySkipped() {
+        skippedQueryCount.incrementAndGet();
+    }
+
+    /**
+     * Number of calls to the service the index removed
+     */
+    public int getSkippedQueryCount() {
+        return skippedQueryCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AccentIndex[keys=" + index.size() + "/" + index.maxSize()
+                + " lookups=" + lookupCount.get() + " answers=" + answerCount.get()
+                + " skipped=" + skippedQueryCount.get() + "]";
+    }
+
+    @Nullable
+    private static List<String> capitalize(@Nullable final List<String> forms) {
+        if (forms == null) {
+            return null;
+        }
+        final List<String> capitalized = new ArrayList<String>(forms.size());
+        for (String form : forms) {
+            capitalized.add(Character.toUpperCase(form.charAt(0)) + form.substring(1));
+        }
+        return capitalized;
+    }
+
+    @Nonnull
+    private static String key(@Nonnull final String language, @Nonnull final String folded) {
+        return language + ':' + folded;
+    }
+}
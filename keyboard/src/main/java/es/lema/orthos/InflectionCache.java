@@ -0,0 +1,185 @@
+package es.lema.orthos;
+
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.service.Word;
+import es.lema.orthos.service.WordList;
+
+/**
+ * Bounded cache of the inflected forms of every lemma, keyed by language, learned from the
+ * lemma and form of every word Orthos returns. The forms of a lemma seen this way are usually
+ * incomplete, so its lemma is queued to be expanded with {@code IOrthosSession.lemma()} when
+ * the user stops typing. The size of the cache is the number of characters it retains, the
+ * least used lemmas are evicted first. It is safe to use from any thread.
+ */
+public final class InflectionCache {
+    // Maximum number of characters retained by the forms of the lemmas, keys included.
+    public static final int DEFAULT_MAX_SIZE = 32 * 1024;
+    // Maximum number of forms whose lemma is remembered.
+    private static final int MAX_FORMS = 8 * 1024;
+    // Maximum number of lemmas waiting to be expanded, the oldest are dropped.
+    private static final int MAX_PENDING = 64;
+    private static final int ENTRY_OVERHEAD = 16;
+
+    private final LruCache<String, Inflections> formsByLemma;
+    private final LruCache<String, String> lemmaByForm = new LruCache<String, String>(MAX_FORMS);
+    // Keys of the lemmas to expand, in the order they were seen
+    private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+
+    private static final class Inflections {
+        final List<String> forms;
+        // Whether the forms were answered by lemma(), not only collected from other answers
+        final boolean complete;
+
+        Inflections(@Nonnull final List<String> forms, final boolean complete) {
+            this.forms = forms;
+            this.complete = complete;
+        }
+    }
+
+    public InflectionCache(final int maxSize) {
+        formsByLemma = new LruCache<String, Inflections>(maxSize) {
+            @Override
+            protected int sizeOf(final String key, final Inflections inflections) {
+                int size = ENTRY_OVERHEAD + key.length();
+                for (final String form : inflections.forms) {
+                    size += form.length();
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Record the lemma of every word of an answer
+     */
+    public void learn(@Nonnull final String language, @Nullable final WordList words) {
+        if (words == null) {
+            return;
+        }
+        for (Word word : words) {
+            learn(language, word.getForm(), word.getLemma());
+        }
+    }
+
+    public void learn(
+        @Nonnull final String language,
+        @Nonnull final String form,
+        @Nullable final String lemma) {
+        if (lemma == null || lemma.length() == 0) {
+            return;
+        }
+        final String lemmaKey = key(language, lemma);
+        synchronized (this) {
+            lemmaByForm.put(key(language, form), lemma);
+            final Inflections inflections = formsByLemma.get(lemmaKey);
+            if (inflections == null) {
+                formsByLemma.put(lemmaKey,
+                        new Inflections(Collections.singletonList(form), false));
+            } else if (!inflections.forms.contains(form)) {
+                final List<String> forms = new ArrayList<String>(inflections.forms.size() + 1);
+                forms.addAll(inflections.forms);
+                forms.add(form);
+                formsByLemma.put(lemmaKey,
+                        new Inflections(Collections.unmodifiableList(forms), inflections.complete));
+            }
+            if (inflections == null || !inflections.complete) {
+                enqueue(lemmaKey);
+            }
+        }
+    }
+
+    /**
+     * Record the answer of lemma() for a lemma, merged with the forms already known: the
+     * answer may be bounded or miss forms learned from other answers
+     */
+    public void learnLemma(
+        @Nonnull final String language,
+        @Nonnull final String lemma,
+        @Nonnull final WordList words) {
+        final String lemmaKey = key(language, lemma);
+        synchronized (this) {
+            final Inflections known = formsByLemma.get(lemmaKey);
+            final List<String> forms = known != null
+                    ? new ArrayList<String>(known.forms)
+                    : new ArrayList<String>(words.size());
+            for (Word word : words) {
+                if (!forms.contains(word.getForm())) {
+                    forms.add(word.getForm());
+                }
+                lemmaByForm.put(key(language, word.getForm()), lemma);
+            }
+            formsByLemma.put(lemmaKey,
+                    new Inflections(Collections.unmodifiableList(forms), true));
+        }
+    }
+
+    /**
+     * The other known forms of the lemma of the word, empty if its lemma is not known
+     */
+    @Nonnull
+    public List<String> getInflections(@Nonnull final String language, @Nonnull final String word) {
+        final String lemma = lemmaByForm.get(key(language, word));
+        if (lemma == null) {
+            return Collections.emptyList();
+        }
+        final Inflections inflections = formsByLemma.get(key(language, lemma));
+        if (inflections == null) {
+            return Collections.emptyList();
+        }
+        final List<String> forms = new ArrayList<String>(inflections.forms);
+        forms.remove(word);
+        return forms;
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Take the next lemma to expand, as its language and the lemma, or null if there is none
+     */
+    @Nullable
+    public synchronized String[] pollPending() {
+        final Iterator<String> iterator = pending.iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        final String key = iterator.next();
+        iterator.remove();
+        final int separator = key.indexOf(':');
+        return new String[] { key.substring(0, separator), key.substring(separator + 1) };
+    }
+
+    @Override
+    public String toString() {
+        return "InflectionCache[size=" + formsByLemma.size() + "/" + formsByLemma.maxSize()
+                + " forms=" + lemmaByForm.size()
+                + " evictions=" + formsByLemma.evictionCount() + "]";
+    }
+
+    private void enqueue(@Nonnull final String lemmaKey) {
+        if (pending.remove(lemmaKey) || pending.size() < MAX_PENDING) {
+            pending.add(lemmaKey);
+            return;
+        }
+        final Iterator<String> iterator = pending.iterator();
+        iterator.next();
+        iterator.remove();
+        pending.add(lemmaKey);
+    }
+
+    @Nonnull
+    private static String key(@Nonnull final String language, @Nonnull final String word) {
+        return language + ':' + word;
+    }
+}
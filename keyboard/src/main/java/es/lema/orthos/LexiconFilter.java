@@ -0,0 +1,207 @@
+package es.lema.orthos;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.Normalizer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Bloom filter of the words of a language known to be spelled correctly, memory-mapped from a
+ * file so that it survives restarts without being loaded. It answers "definitely not known" or
+ * "probably known": words are only added once Orthos confirmed them, so a positive answer is
+ * wrong at most with the false positive rate. It is safe to use from any thread.
+ */
+public final class LexiconFilter {
+    private static final String TAG = LexiconFilter.class.getSimpleName();
+
+    // About 100.000 words with a 1% false positive rate in 128 KB
+    public static final int DEFAULT_BITS = 1 << 20;
+    public static final int DEFAULT_HASHES = 7;
+
+    private static final int MAGIC = 0x4f4c4246;
+    // Magic, number of bits, number of hashes and number of words added
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int numBits;
+    private final int numHashes;
+
+    private final AtomicInteger queryCount = new AtomicInteger();
+    private final AtomicInteger positiveCount = new AtomicInteger();
+    private final AtomicInteger negativeCount = new AtomicInteger();
+    private final AtomicInteger falsePositiveCount = new AtomicInteger();
+
+    private LexiconFilter(
+        @Nonnull final MappedByteBuffer buffer,
+        final int numBits,
+        final int numHashes) {
+        this.buffer = buffer;
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Map the filter stored in the file, creating it empty if it does not exist or was
+     * written with a different size.
+     */
+    @Nonnull
+    public static LexiconFilter open(
+        @Nonnull final File file,
+        final int numBits,
+        final int numHashes) throws IOException {
+        final int length = HEADER_SIZE + numBits / 8;
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final boolean valid = raf.length() == length
+                    && raf.readInt() == MAGIC
+                    && raf.readInt() == numBits
+                    && raf.readInt() == numHashes;
+            if (!valid) {
+                Log.d(TAG, "open(): new filter " + file);
+                raf.setLength(0);
+                raf.setLength(length);
+                raf.seek(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(numBits);
+                raf.writeInt(numHashes);
+                raf.writeInt(0);
+            }
+            final MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new LexiconFilter(buffer, numBits, numHashes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns false if the word was never added, true if it probably was
+     */
+    public boolean mightContain(@Nonnull final String word) {
+        queryCount.incrementAndGet();
+        if (!contains(word)) {
+            return false;
+        }
+        positiveCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Record the answer of Orthos for a word: known words are added, unknown ones measure
+     * the false positive rate.
+     */
+    public void learn(@Nonnull final String word, final boolean known) {
+        if (known) {
+            add(word);
+        } else {
+            negativeCount.incrementAndGet();
+            if (contains(word)) {
+                falsePositiveCount.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean contains(@Nonnull final String word) {
+        final long hash = hash(word);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        synchronized (buffer) {
+            for (int i = 0; i < numHashes; i++) {
+                final int bit = index(h1 + i * h2);
+                if ((buffer.get(HEADER_SIZE + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void add(@Nonnull final String word) {
+        final long hash = hash(word);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        synchronized (buffer) {
+            boolean added = false;
+            for (int i = 0; i < numHashes; i++) {
+                final int bit = index(h1 + i * h2);
+                final int offset = HEADER_SIZE + (bit >>> 3);
+                final byte value = buffer.get(offset);
+                final byte updated = (byte) (value | (1 << (bit & 7)));
+                if (updated != value) {
+                    buffer.put(offset, updated);
+                    added = true;
+                }
+            }
+            if (added) {
+                buffer.putInt(COUNT_OFFSET, buffer.getInt(COUNT_OFFSET) + 1);
+            }
+        }
+    }
+
+    /**
+     * Number of distinct words added, as far as the filter can tell
+     */
+    public int getCount() {
+        synchronized (buffer) {
+            return buffer.getInt(COUNT_OFFSET);
+        }
+    }
+
+    /**
+     * False positive rate expected for the number of words added
+     */
+    public double getExpectedFalsePositiveRate() {
+        final double fill = 1 - Math.exp(-(double) numHashes * getCount() / numBits);
+        return Math.pow(fill, numHashes);
+    }
+
+    /**
+     * False positive rate measured on the unknown words answered by Orthos so far
+     */
+    public double getFalsePositiveRate() {
+        final int negatives = negativeCount.get();
+        return negatives == 0 ? 0 : (double) falsePositiveCount.get() / negatives;
+    }
+
+    /**
+     * Share of the queries answered as known
+     */
+    public double getHitRate() {
+        final int queries = queryCount.get();
+        return queries == 0 ? 0 : (double) positiveCount.get() / queries;
+    }
+
+    @Override
+    public String toString() {
+        return "LexiconFilter[words=" + getCount()
+                + " queries=" + queryCount.get()
+                + " hits=" + positiveCount.get()
+                + " fpr=" + getFalsePositiveRate()
+                + " expectedFpr=" + getExpectedFalsePositiveRate() + "]";
+    }
+
+    private int index(final int hash) {
+        return (hash & Integer.MAX_VALUE) % numBits;
+    }
+
+    /*
+     * 64-bit FNV-1a of the normalized word, split in two hashes for double hashing
+     */
+    private static long hash(@Nonnull final String word) {
+        final String normalized = Normalizer.normalize(word, Normalizer.Form.NFC);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,225 @@
+package es.lema.orthos;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.inputmethod.annotations.UsedForTesting;
+import es.lema.orthos.service.IOrthosAsyncSession;
+import es.lema.orthos.service.IOrthosCallback;
+import es.lema.orthos.service.WordList;
+
+/**
+ * In-process stand-in of an {@link IOrthosAsyncSession} over a fixed list of forms, to
+ * exercise {@link OrthosAsyncClient} without the Orthos service. Requests are answered in
+ * order on a thread of its own, like the binder threads of the real service, and may be held
+ * to keep requests pending, all of them or the alternative ones only. Nearest forms are the
+ * ones within the edit distance, alternatives the ones that only differ in case or accents.
+ */
+@UsedForTesting
+public final class LocalOrthosAsyncSession extends IOrthosAsyncSession.Stub {
+    private static final String TAG = LocalOrthosAsyncSession.class.getSimpleName();
+
+    private final List<String> forms;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ConcurrentHashMap<Integer, Future<?>> running =
+            new ConcurrentHashMap<Integer, Future<?>>();
+    private final AtomicInteger cancelCount = new AtomicInteger();
+    // Answers wait for it, open unless the session is held
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    // Alternative answers wait for it too
+    private volatile CountDownLatch alternativeGate = new CountDownLatch(0);
+
+    public LocalOrthosAsyncSession(@Nonnull final Collection<String> forms) {
+        this.forms = new ArrayList<String>(forms);
+    }
+
+    @Override
+    public void nearest(
+        final int requestId,
+        final String word,
+        final int maxCount,
+        final int maxDistance,
+        final IOrthosCallback callback) {
+        answer(requestId, callback, gate, new Query() {
+            @Override
+            public WordList run() {
+                return nearest(word, maxCount, maxDistance);
+            }
+        });
+    }
+
+    @Override
+    public void alternative(
+        final int requestId,
+        final String word,
+        final int maxCount,
+        final int maxDistance,
+        final IOrthosCallback callback) {
+        answer(requestId, callback, alternativeGate, new Query() {
+            @Override
+            public WordList run() {
+                return alternative(word, maxCount);
+            }
+        });
+    }
+
+    @Override
+    public void cancel(final int requestId) {
+        final Future<?> future = running.remove(requestId);
+        if (future != null) {
+            cancelCount.incrementAndGet();
+            future.cancel(true);
+        }
+    }
+
+    /*
+     * Keep the requests received from now on unanswered until the session is released
+     */
+    public void hold() {
+        gate = new CountDownLatch(1);
+        alternativeGate = gate;
+    }
+
+    /*
+     * Keep the alternative requests received from now on unanswered until the session is
+     * released. Requests are answered in order, so the ones sent after them are held too.
+     */
+    public void holdAlternatives() {
+        alternativeGate = new CountDownLatch(1);
+    }
+
+    public void release() {
+        gate.countDown();
+        alternativeGate.countDown();
+    }
+
+    /*
+     * Number of requests cancelled before they were answered
+     */
+    public int getCancelCount() {
+        return cancelCount.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private interface Query {
+        WordList run();
+    }
+
+    private void answer(
+        final int requestId,
+        final IOrthosCallback callback,
+        final CountDownLatch held,
+        final Query query) {
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    held.await();
+                    final WordList words = query.run();
+                    if (running.remove(requestId) != null) {
+                        callback.onResult(requestId, words);
+                    }
+                } catch (RemoteException e) {
+                    Log.d(TAG, "answer(): " + requestId, e);
+                } catch (InterruptedException e) {
+                    // Cancelled while held
+                }
+            }
+        }, null);
+        // Registered before it runs, so that the answer is never taken as cancelled
+        running.put(requestId, task);
+        executor.execute(task);
+    }
+
+    @Nonnull
+    private WordList nearest(final String word, final int maxCount, final int maxDistance) {
+        final List<String> found = new ArrayList<String>();
+        final HashMap<String, Integer> distances = new HashMap<String, Integer>();
+        for (String form : forms) {
+            final int distance = distance(word, form);
+            if (distance <= maxDistance) {
+                found.add(form);
+                distances.put(form, distance);
+            }
+        }
+        Collections.sort(found, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return distances.get(a) - distances.get(b);
+            }
+        });
+        return toWordList(found, maxCount);
+    }
+
+    @Nonnull
+    private WordList alternative(final String word, final int maxCount) {
+        final String folded = fold(word);
+        final List<String> found = new ArrayList<String>();
+        for (String form : forms) {
+            if (!form.equals(word) && fold(form).equals(folded)) {
+                found.add(form);
+            }
+        }
+        return toWordList(found, maxCount);
+    }
+
+    @Nonnull
+    private static WordList toWordList(final List<String> found, final int maxCount) {
+        final WordList words = new WordList();
+        for (int i = 0; i < found.size() && i < maxCount; i++) {
+            words.add(found.get(i), found.get(i), 0);
+        }
+        return words;
+    }
+
+    @Nonnull
+    private static String fold(final String word) {
+        return Normalizer.normalize(word, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * Levenshtein distance between two words
+     */
+    private static int distance(final String a, final String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
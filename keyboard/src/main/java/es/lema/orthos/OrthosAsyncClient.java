@@ -0,0 +1,140 @@
+package es.lema.orthos;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import es.lema.orthos.inputmethod.utils.SettableFuture;
+import es.lema.orthos.service.IOrthosAsyncSession;
+import es.lema.orthos.service.IOrthosCallback;
+import es.lema.orthos.service.WordList;
+
+/**
+ * Future-style wrapper of an {@link IOrthosAsyncSession}. Sending a request never blocks the
+ * calling thread: every request gets an id and a future, which the callback completes from a
+ * binder thread. Cancelling the future cancels the request in the service.
+ */
+public final class OrthosAsyncClient {
+    private static final String TAG = OrthosAsyncClient.class.getSimpleName();
+
+    /*
+     * Notified on the completing thread once the future of a request is done
+     */
+    public interface Listener {
+        void onDone(@Nonnull Future<WordList> future);
+    }
+
+    private final IOrthosAsyncSession session;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Request> pending =
+            new ConcurrentHashMap<Integer, Request>();
+
+    private final IOrthosCallback callback = new IOrthosCallback.Stub() {
+        @Override
+        public void onResult(final int requestId, final WordList words) {
+            final Request request = pending.get(requestId);
+            if (request != null) {
+                request.set(words);
+            }
+        }
+
+        @Override
+        public void onError(final int requestId, final String message) {
+            final Request request = pending.get(requestId);
+            if (request != null) {
+                request.setException(new RemoteException(message));
+            }
+        }
+    };
+
+    public OrthosAsyncClient(@Nonnull final IOrthosAsyncSession session) {
+        this.session = session;
+    }
+
+    @Nonnull
+    public Future<WordList> nearest(
+        @Nonnull final String word,
+        final int maxCount,
+        final int maxDistance,
+        @Nullable final Listener listener) {
+        final Request request = newRequest(listener);
+        try {
+            session.nearest(request.id, word, maxCount, maxDistance, callback);
+        } catch (RemoteException e) {
+            request.setException(e);
+        }
+        return request;
+    }
+
+    @Nonnull
+    public Future<WordList> alternative(
+        @Nonnull final String word,
+        final int maxCount,
+        final int maxDistance,
+        @Nullable final Listener listener) {
+        final Request request = newRequest(listener);
+        try {
+            session.alternative(request.id, word, maxCount, maxDistance, callback);
+        } catch (RemoteException e) {
+            request.setException(e);
+        }
+        return request;
+    }
+
+    /*
+     * Fail the requests still pending, e.g. because the service died and will never answer
+     */
+    public void close() {
+        for (Request request : pending.values()) {
+            request.setException(new RemoteException("Orthos service disconnected"));
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Nonnull
+    private Request newRequest(@Nullable final Listener listener) {
+        final Request request = new Request(nextRequestId.incrementAndGet(), listener);
+        pending.put(request.id, request);
+        return request;
+    }
+
+    private final class Request extends SettableFuture<WordList> {
+        final int id;
+        private final Listener listener;
+
+        Request(final int id, @Nullable final Listener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            try {
+                session.cancel(id);
+            } catch (RemoteException e) {
+                Log.d(TAG, "cancel(): " + id, e);
+            }
+            return true;
+        }
+
+        @Override
+        protected void onDone() {
+            pending.remove(id);
+            if (listener != null) {
+                listener.onDone(this);
+            }
+        }
+    }
+}
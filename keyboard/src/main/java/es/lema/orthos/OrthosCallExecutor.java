@@ -0,0 +1,81 @@
+package es.lema.orthos;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Runs calls to the Orthos service on a small pool of binder threads, which callers wait for
+ * at most a deadline. A call that misses its deadline keeps running on its binder thread, so
+ * its reply may still be used for side effects such as filling a cache, but the caller is
+ * released and the following requests are not queued behind it. When every binder thread is
+ * blocked the call is rejected immediately, as if its deadline had passed. The queries of the
+ * user and the background work, e.g. prefetching and warming up, run on separate executors so
+ * that the background work can never make a query of the user be rejected.
+ */
+public final class OrthosCallExecutor {
+    private static final String TAG = OrthosCallExecutor.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger callCount = new AtomicInteger();
+    private final AtomicInteger timeoutCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    /**
+     * @param maxThreads binder threads that may be blocked at the same time on a slow service
+     */
+    public OrthosCallExecutor(final int maxThreads) {
+        executor = new ThreadPoolExecutor(
+                0, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+    }
+
+    /**
+     * Run the call in background without waiting for it.
+     * @return the future of the call, or null if every binder thread is busy.
+     */
+    public <T> Future<T> submit(@Nonnull final Callable<T> callable) {
+        callCount.incrementAndGet();
+        try {
+            return executor.submit(callable);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            Log.d(TAG, "submit(): rejected " + this);
+            return null;
+        }
+    }
+
+    /**
+     * Record that a caller stopped waiting for a call started with {@link #submit}.
+     */
+    public void onTimeout() {
+        timeoutCount.incrementAndGet();
+        Log.d(TAG, "onTimeout(): " + this);
+    }
+
+    public int getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OrthosCallExecutor[calls=" + callCount.get()
+                + " timeouts=" + timeoutCount.get()
+                + " rejected=" + rejectedCount.get()
+                + " active=" + executor.getActiveCount() + "]";
+    }
+}
@@ -4,29 +4,192 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import junit.framework.Assert;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import es.lema.orthos.inputmethod.annotations.UsedForTesting;
+import es.lema.orthos.inputmethod.common.Constants;
+import es.lema.orthos.inputmethod.utils.SettableFuture;
+
+import es.lema.orthos.service.IOrthosAsyncSession;
+import es.lema.orthos.service.IOrthosQueryService;
+import es.lema.orthos.service.IOrthosQuerySession;
 import es.lema.orthos.service.IOrthosService;
 import es.lema.orthos.service.IOrthosSession;
+import es.lema.orthos.service.WordList;
 
 public final class OrthosServiceManager {
     private static final String TAG = OrthosServiceManager.class.getSimpleName();
 
+    /*
+     * Notified on the main thread every time the service becomes ready, including after a
+     * reconnection
+     */
+    public interface ConnectionListener {
+        void onServiceReady();
+    }
+
     private static OrthosServiceManager instance = null;
     
     private static OrthosServiceConnection connection = null;
-    private static IOrthosService service = null;
-    private static IOrthosSession session = null;
+    private static volatile IOrthosService service = null;
+    // Optional extension of the service with bounded queries, null if it is not installed
+    private static QueryServiceConnection queryConnection = null;
+    private static volatile IOrthosQueryService queryService = null;
+    // Completed with the service once it is connected, replaced when it disconnects
+    private static volatile SettableFuture<IOrthosService> ready =
+    new SettableFuture<IOrthosService>();
+    // Locale of the current subtype, whose session is prepared as soon as the service connects
+    private static volatile String warmUpLocale = null;
+
+    // Time a request waits for the service to connect
+    private static final long SERVICE_READY_TIMEOUT = Constants.GET_SUGGESTED_WORDS_TIMEOUT;
+    // Word queried to load the dictionary of a new session
+    private static final String WARM_UP_WORD = "a";
+
+    // Channels of independent sessions of a language, so queries can run concurrently
+    public static final int CHANNEL_NEAREST = 0;
+    public static final int CHANNEL_ALTERNATIVE = 1;
+
+    // Sessions are kept idle at most this time before being released
+    private static final long SESSION_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    // One session per language and channel, read without locking
+    private static final ConcurrentHashMap<String, PooledSession<IOrthosSession>> sessions =
+    new ConcurrentHashMap<String, PooledSession<IOrthosSession>>();
+    // One session of the query extension per language and channel
+    private static final ConcurrentHashMap<String, PooledSession<IOrthosQuerySession>> querySessions =
+    new ConcurrentHashMap<String, PooledSession<IOrthosQuerySession>>();
+    // One asynchronous client of the query extension per language and channel
+    private static final ConcurrentHashMap<String, PooledSession<OrthosAsyncClient>> asyncClients =
+    new ConcurrentHashMap<String, PooledSession<OrthosAsyncClient>>();
+    // Replaces the asynchronous sessions of the service for every language, see LocalOrthosAsyncSession
+    private static volatile OrthosAsyncClient asyncOverride = null;
+    // Language of every subtype locale seen, to avoid splitting it on each request
+    private static final ConcurrentHashMap<String, String> languages =
+    new ConcurrentHashMap<String, String>();
+    // Whether the eviction of the idle sessions is posted
+    private static final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+    private static final SuggestionCache suggestionCache =
+    new SuggestionCache(SuggestionCache.DEFAULT_MAX_SIZE);
+    // Runs the queries of the user, the phases of a query may block two threads
+    private static final OrthosCallExecutor callExecutor = new OrthosCallExecutor(4);
+    // Runs the work not waited for by the user, so that it never takes the threads of its queries
+    private static final OrthosCallExecutor backgroundExecutor = new OrthosCallExecutor(2);
+    private static final AccentIndex accentIndex = new AccentIndex(AccentIndex.DEFAULT_MAX_KEYS);
+    private static final InflectionCache inflectionCache =
+    new InflectionCache(InflectionCache.DEFAULT_MAX_SIZE);
+    // Lemmas expanded at most per pass, so that a pass never holds a binder thread long
+    private static final int MAX_LEMMAS_PER_PASS = 4;
+    private static final AtomicBoolean expanding = new AtomicBoolean();
+    // Filter of the words known to exist per language, loaded in background on first use
+    private static final ConcurrentHashMap<String, LexiconFilter> lexiconFilters =
+    new ConcurrentHashMap<String, LexiconFilter>();
+    private static final ConcurrentHashMap<String, Boolean> lexiconFiltersLoading =
+    new ConcurrentHashMap<String, Boolean>();
+
+    private static final CopyOnWriteArrayList<ConnectionListener> listeners =
+    new CopyOnWriteArrayList<ConnectionListener>();
+
+    // Backoff between attempts to bind again with a dead service
+    private static final long REBIND_INITIAL_DELAY = 1000;
+    private static final long REBIND_MAX_DELAY = 60 * 1000;
+    private static long rebindDelay = REBIND_INITIAL_DELAY;
+    // Recovery statistics, only accessed from the main thread
+    private static long disconnectTime = 0;
+    private static int disconnectCount = 0;
+    private static long lastRecoveryTime = 0;
+
+    private final Context context;
+    private final Handler handler;
+
+    private final Runnable rebind = new Runnable() {
+        @Override
+        public void run() {
+            if (service != null) {
+                return;
+            }
+            Log.d(TAG, "rebind(): after " + rebindDelay + "ms");
+            try {
+                context.unbindService(connection);
+            } catch (IllegalArgumentException e) {
+                // Never bound
+            }
+            bind();
+            rebindDelay = Math.min(rebindDelay * 2, REBIND_MAX_DELAY);
+            handler.postDelayed(this, rebindDelay);
+        }
+    };
+
+    private final Runnable evictIdle = new Runnable() {
+        @Override
+        public void run() {
+            evictionScheduled.set(false);
+            final long now = SystemClock.elapsedRealtime();
+            final long oldest = Math.min(evictIdleSessions(sessions, now),
+                    Math.min(evictIdleSessions(querySessions, now),
+                            evictIdleSessions(asyncClients, now)));
+            if (oldest != Long.MAX_VALUE) {
+                scheduleEviction(oldest + SESSION_IDLE_TIMEOUT - now);
+            }
+        }
+    };
 
     private OrthosServiceManager(Context context) {
         Log.d(TAG, "OrthosServiceManager()");
+        this.context = context.getApplicationContext();
+        handler = new Handler(Looper.getMainLooper());
     	connection = new OrthosServiceConnection();
+        if (!bind()) {
+            scheduleRebind();
+        }
+        queryConnection = new QueryServiceConnection();
+        bindQuery();
+    }
+
+    private boolean bind() {
         Intent intent = new Intent(IOrthosService.class.getName());
-        context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+        if (!context.bindService(intent, connection, Context.BIND_AUTO_CREATE)) {
+            Log.e(TAG, "bind(): unable to bind " + intent);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Bind with the query extension, older services do not export it
+     */
+    private boolean bindQuery() {
+        Intent intent = new Intent(IOrthosQueryService.class.getName());
+        if (!context.bindService(intent, queryConnection, Context.BIND_AUTO_CREATE)) {
+            Log.d(TAG, "bindQuery(): query extension not available");
+            return false;
+        }
+        return true;
+    }
+
+    private void scheduleRebind() {
+        handler.removeCallbacks(rebind);
+        handler.postDelayed(rebind, rebindDelay);
     }
 
 	/*
@@ -54,39 +217,469 @@ public final class OrthosServiceManager {
     }
 
     /*
-     * Get the session manager
+     * Get a future completed with the service once it is connected
+     */
+    public Future<IOrthosService> getReadyFuture() {
+        return ready;
+    }
+
+    /*
+     * Wait for the service to be connected, returns null if it is not connected in time
+     */
+    public IOrthosService awaitService(long timeoutMillis) {
+        IOrthosService current = service;
+        if (current != null) {
+            return current;
+        }
+        try {
+            return ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.d(TAG, "awaitService(): not connected after " + timeoutMillis + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.d(TAG, "awaitService()", e);
+        }
+        return null;
+    }
+
+    /*
+     * Prepare the session of the locale in background, now or when the service connects
+     */
+    public void warmUp(String locale) {
+        Log.d(TAG, "warmUp(): " + locale);
+        warmUpLocale = locale;
+        if (locale != null && service != null) {
+            submitWarmUp(locale);
+        }
+    }
+
+    private static void submitWarmUp(final String locale) {
+        backgroundExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws RemoteException {
+                long start = SystemClock.uptimeMillis();
+                instance.getSession(locale, CHANNEL_NEAREST).nearest(WARM_UP_WORD);
+                instance.getSession(locale, CHANNEL_ALTERNATIVE).alternative(WARM_UP_WORD);
+                Log.d(TAG, "warmUp(): " + locale + " ready in "
+                        + (SystemClock.uptimeMillis() - start) + "ms");
+                return null;
+            }
+        });
+    }
+
+    /*
+     * Get the session for the language of the locale, creating it on first use
      */
     public IOrthosSession getSession(String locale) throws RemoteException {
-        Log.d(TAG, "getSession(): " + locale);
+        return getSession(locale, CHANNEL_NEAREST);
+    }
+
+    /*
+     * Get the session of a channel for the language of the locale, creating it on first use
+     */
+    public IOrthosSession getSession(String locale, int channel) throws RemoteException {
+        Log.d(TAG, "getSession(): " + locale + " #" + channel);
         Assert.assertNotNull(locale);
-        Assert.assertNotNull(service);
-        synchronized (OrthosServiceManager.class) {
-            String language = locale.split("_")[0];
-            if (session == null) {
-                session = service.createSession(language);
+        final String key = getSessionKey(locale, channel);
+        final long now = SystemClock.elapsedRealtime();
+        PooledSession<IOrthosSession> pooled = sessions.get(key);
+        if (pooled == null) {
+            final IOrthosService current = awaitService(SERVICE_READY_TIMEOUT);
+            if (current == null) {
+                throw new RemoteException("Orthos service not connected");
             }
-            else {
-                session.setLocale(language);
+            synchronized (sessions) {
+                pooled = sessions.get(key);
+                if (pooled == null) {
+                    pooled = new PooledSession<IOrthosSession>(
+                            current.createSession(getLanguage(locale)));
+                    sessions.put(key, pooled);
+                    scheduleEviction(SESSION_IDLE_TIMEOUT);
+                }
             }
+        }
+        pooled.lastUsed = now;
+        return pooled.session;
+    }
+
+    /*
+     * Key of the pooled sessions of a channel for the language of the locale
+     */
+    private static String getSessionKey(String locale, int channel) {
+        final String language = getLanguage(locale);
+        return channel == CHANNEL_NEAREST ? language : language + '#' + channel;
+    }
+
+    /*
+     * Get the session of the query extension for the language of the locale, creating it on
+     * first use, returns null if the service does not implement the extension
+     */
+    public IOrthosQuerySession getQuerySession(String locale) throws RemoteException {
+        return getQuerySession(locale, CHANNEL_NEAREST);
+    }
+
+    /*
+     * Get the session of the query extension of a channel for the language of the locale,
+     * creating it on first use, returns null if the service does not implement the extension
+     */
+    public IOrthosQuerySession getQuerySession(String locale, int channel) throws RemoteException {
+        Assert.assertNotNull(locale);
+        final IOrthosQueryService current = queryService;
+        if (current == null) {
+            return null;
+        }
+        final String key = getSessionKey(locale, channel);
+        final long now = SystemClock.elapsedRealtime();
+        PooledSession<IOrthosQuerySession> pooled = querySessions.get(key);
+        if (pooled == null) {
+            synchronized (querySessions) {
+                pooled = querySessions.get(key);
+                if (pooled == null) {
+                    IOrthosQuerySession session = current.createQuerySession(getLanguage(locale));
+                    if (session == null) {
+                        return null;
+                    }
+                    pooled = new PooledSession<IOrthosQuerySession>(session);
+                    querySessions.put(key, pooled);
+                    scheduleEviction(SESSION_IDLE_TIMEOUT);
+                }
+            }
+        }
+        pooled.lastUsed = now;
+        return pooled.session;
+    }
+
+    /*
+     * Get the asynchronous client of the query extension of a channel for the language of the
+     * locale, creating it on first use, returns null if the service does not implement the
+     * extension
+     */
+    public OrthosAsyncClient getAsyncClient(String locale, int channel) throws RemoteException {
+        Assert.assertNotNull(locale);
+        final OrthosAsyncClient override = asyncOverride;
+        if (override != null) {
+            return override;
+        }
+        final IOrthosQueryService current = queryService;
+        if (current == null) {
+            return null;
+        }
+        final String key = getSessionKey(locale, channel);
+        final long now = SystemClock.elapsedRealtime();
+        PooledSession<OrthosAsyncClient> pooled = asyncClients.get(key);
+        if (pooled == null) {
+            synchronized (asyncClients) {
+                pooled = asyncClients.get(key);
+                if (pooled == null) {
+                    IOrthosAsyncSession session = current.createAsyncSession(getLanguage(locale));
+                    if (session == null) {
+                        return null;
+                    }
+                    pooled = new PooledSession<OrthosAsyncClient>(new OrthosAsyncClient(session));
+                    asyncClients.put(key, pooled);
+                    scheduleEviction(SESSION_IDLE_TIMEOUT);
+                }
+            }
+        }
+        pooled.lastUsed = now;
+        return pooled.session;
+    }
+
+    /*
+     * Answer the asynchronous requests of every language with the session, null to restore
+     * the sessions of the service
+     */
+    @UsedForTesting
+    public void setAsyncSessionOverride(IOrthosAsyncSession session) {
+        final OrthosAsyncClient previous = asyncOverride;
+        asyncOverride = session != null ? new OrthosAsyncClient(session) : null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /*
+     * Post the eviction of the idle sessions on the main thread, unless it is already posted
+     */
+    private void scheduleEviction(long delayMillis) {
+        if (evictionScheduled.compareAndSet(false, true)) {
+            handler.postDelayed(evictIdle, delayMillis);
+        }
+    }
+
+    /*
+     * Drop the sessions of the pool not used for a while, returns the time the oldest session
+     * left was last used, Long.MAX_VALUE if none is left. The interfaces of the service have no
+     * method to close a session: the service can only free it once the binder proxy dropped
+     * here is collected and its reference released. The pending requests of the asynchronous
+     * clients are failed, so that their futures and callbacks are not kept.
+     */
+    private static <T> long evictIdleSessions(
+        ConcurrentHashMap<String, PooledSession<T>> pool,
+        long now) {
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, PooledSession<T>> entry : pool.entrySet()) {
+            final PooledSession<T> pooled = entry.getValue();
+            if (now - pooled.lastUsed <= SESSION_IDLE_TIMEOUT) {
+                oldest = Math.min(oldest, pooled.lastUsed);
+            } else if (pool.remove(entry.getKey(), pooled)) {
+                Log.d(TAG, "evictIdleSessions(): " + entry.getKey());
+                if (pooled.session instanceof OrthosAsyncClient) {
+                    ((OrthosAsyncClient) pooled.session).close();
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /*
+     * Get the cache of candidates shared by all the sessions
+     */
+    public SuggestionCache getSuggestionCache() {
+        return suggestionCache;
+    }
+
+    /*
+     * Get the index of the forms learned from the answers, by accent-folded spelling
+     */
+    public AccentIndex getAccentIndex() {
+        return accentIndex;
+    }
+
+    /*
+     * Get the cache of the inflected forms of the lemmas learned from the answers
+     */
+    public InflectionCache getInflectionCache() {
+        return inflectionCache;
+    }
+
+    /*
+     * Ask the service for the forms of a few lemmas waiting to be expanded, in background.
+     * Called once the user stopped typing, does nothing while a previous pass is running.
+     */
+    public void expandInflections() {
+        if (service == null || !inflectionCache.hasPending() || !expanding.compareAndSet(false, true)) {
+            return;
+        }
+        final Future<Void> future = backgroundExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    for (int i = 0; i < MAX_LEMMAS_PER_PASS; i++) {
+                        final String[] pending = inflectionCache.pollPending();
+                        if (pending == null) {
+                            break;
+                        }
+                        final WordList forms =
+                                getSession(pending[0], CHANNEL_ALTERNATIVE).lemma(pending[1]);
+                        if (forms != null) {
+                            inflectionCache.learnLemma(pending[0], pending[1], forms);
+                        }
+                    }
+                    Log.d(TAG, "expandInflections(): " + inflectionCache);
+                } catch (RemoteException e) {
+                    // The lemma is dropped, it is queued again when the service answers it
+                    Log.d(TAG, "expandInflections()", e);
+                } finally {
+                    expanding.set(false);
+                }
+                return null;
+            }
+        });
+        if (future == null) {
+            // Every binder thread is busy, try again after the next pause
+            expanding.set(false);
+        }
+    }
+
+    /*
+     * Get the filter of the words known to exist in the language of the locale, returns null
+     * while it is being loaded
+     */
+    public LexiconFilter getLexiconFilter(String locale) {
+        final String language = getLanguage(locale);
+        final LexiconFilter filter = lexiconFilters.get(language);
+        if (filter == null && lexiconFiltersLoading.putIfAbsent(language, Boolean.TRUE) == null) {
+            final Future<Void> future = backgroundExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    File file = new File(context.getFilesDir(), "lexicon-" + language + ".bloom");
+                    try {
+                        lexiconFilters.put(language, LexiconFilter.open(file,
+                                LexiconFilter.DEFAULT_BITS, LexiconFilter.DEFAULT_HASHES));
+                    } catch (IOException e) {
+                        // Not retried, suggestions work the same without the filter
+                        Log.e(TAG, "getLexiconFilter(): unable to open " + file, e);
+                    }
+                    return null;
+                }
+            });
+            if (future == null) {
+                // Every binder thread is busy, try again on the next request
+                lexiconFiltersLoading.remove(language);
+            }
+        }
+        return filter;
+    }
+
+    public void addConnectionListener(ConnectionListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeConnectionListener(ConnectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    /*
+     * Time between the last loss of the service and its reconnection
+     */
+    public long getLastRecoveryTime() {
+        return lastRecoveryTime;
+    }
+
+    /*
+     * Get the executor that bounds the time the queries of the user wait for the service
+     */
+    public OrthosCallExecutor getCallExecutor() {
+        return callExecutor;
+    }
+
+    /*
+     * Get the executor of the calls nobody waits for, e.g. prefetching
+     */
+    public OrthosCallExecutor getBackgroundExecutor() {
+        return backgroundExecutor;
+    }
+
+    /*
+     * Get the language part of a subtype locale, e.g. "es" for "es_ES"
+     */
+    public static String getLanguage(String locale) {
+        String language = languages.get(locale);
+        if (language == null) {
+            language = locale.split("_")[0];
+            languages.put(locale, language);
+        }
+        return language;
+    }
+
+    private static final class PooledSession<T> {
+        final T session;
+        volatile long lastUsed;
+
+        PooledSession(T session) {
             Assert.assertNotNull(session);
-            return session;
+            this.session = session;
+        }
+    }
+
+    /*
+     * Forget the dead service and bind again after the current backoff
+     */
+    private void onServiceLost() {
+        if (service == null) {
+            return;
         }
+        service = null;
+        sessions.clear();
+        if (ready.isDone()) {
+            ready = new SettableFuture<IOrthosService>();
+        }
+        disconnectCount++;
+        disconnectTime = SystemClock.uptimeMillis();
+        Log.d(TAG, "onServiceLost(): disconnections " + disconnectCount);
+        scheduleRebind();
     }
 
-/*
+    private void onServiceFound(IOrthosService found) {
+        handler.removeCallbacks(rebind);
+        rebindDelay = REBIND_INITIAL_DELAY;
+        if (disconnectTime > 0) {
+            lastRecoveryTime = SystemClock.uptimeMillis() - disconnectTime;
+            disconnectTime = 0;
+            Log.d(TAG, "onServiceFound(): recovered in " + lastRecoveryTime + "ms");
+        }
+        service = found;
+        sessions.clear();
+        // Keyed by language, the cache is kept across the switches of subtype
+        suggestionCache.invalidate();
+        ready.set(found);
+        String locale = warmUpLocale;
+        if (locale != null) {
+            submitWarmUp(locale);
+        }
+        for (ConnectionListener listener : listeners) {
+            listener.onServiceReady();
+        }
+    }
+
+    /*
      * Bind with the service
      */
     private static class OrthosServiceConnection implements ServiceConnection {
 
-		public void onServiceConnected(ComponentName className, IBinder binder) {
+		public void onServiceConnected(ComponentName className, final IBinder binder) {
 			Log.d(TAG, "onServiceConnected(): " + binder.getClass().getName());
-			service = IOrthosService.Stub.asInterface(binder);
+			try {
+				binder.linkToDeath(new IBinder.DeathRecipient() {
+					@Override
+					public void binderDied() {
+						Log.d(TAG, "binderDied()");
+						instance.handler.post(new Runnable() {
+							@Override
+							public void run() {
+								if (service != null && service.asBinder() == binder) {
+									instance.onServiceLost();
+								}
+							}
+						});
+					}
+				}, 0);
+			} catch (RemoteException e) {
+				Log.d(TAG, "onServiceConnected(): already dead", e);
+				instance.scheduleRebind();
+				return;
+			}
+			instance.onServiceFound(IOrthosService.Stub.asInterface(binder));
 		}
 
 		public void onServiceDisconnected(ComponentName className) {
 			Log.d(TAG, "onServiceDisconnected()");
-			service = null;
-			session = null;
+			instance.onServiceLost();
 		}
 	}
+
+    /*
+     * Bind with the query extension, the system binds again by itself if it is restarted
+     */
+    private static class QueryServiceConnection implements ServiceConnection {
+
+        public void onServiceConnected(ComponentName className, IBinder binder) {
+            Log.d(TAG, "QueryServiceConnection.onServiceConnected()");
+            clearQuerySessions();
+            queryService = IOrthosQueryService.Stub.asInterface(binder);
+        }
+
+        public void onServiceDisconnected(ComponentName className) {
+            Log.d(TAG, "QueryServiceConnection.onServiceDisconnected()");
+            queryService = null;
+            clearQuerySessions();
+        }
+
+        /*
+         * Forget the sessions of the extension, the requests of a dead service never complete
+         */
+        private static void clearQuerySessions() {
+            querySessions.clear();
+            for (PooledSession<OrthosAsyncClient> pooled : asyncClients.values()) {
+                pooled.session.close();
+            }
+            asyncClients.clear();
+        }
+    }
 }
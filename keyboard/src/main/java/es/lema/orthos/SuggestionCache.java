@@ -0,0 +1,83 @@
+package es.lema.orthos;
+
+import android.util.LruCache;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the deduplicated candidate forms returned by Orthos, keyed by language and
+ * normalized word. The size of an entry is the number of characters it retains, so a few long
+ * alternative lists can not push out many short answers. It is invalidated when the service
+ * connects again, as its dictionaries may have changed, but not when the subtype switches
+ * locale: the answers of another language are never looked up, and are kept for when the user
+ * switches back. It is safe to use from any thread.
+ */
+public final class SuggestionCache {
+    // Maximum number of characters retained by the cache, keys included.
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    // Approximate per-entry overhead, in characters, so that empty answers have a cost.
+    private static final int ENTRY_OVERHEAD = 16;
+
+    private final LruCache<String, List<String>> cache;
+
+    public SuggestionCache(final int maxSize) {
+        cache = new LruCache<String, List<String>>(maxSize) {
+            @Override
+            protected int sizeOf(final String key, final List<String> forms) {
+                int size = ENTRY_OVERHEAD + key.length();
+                for (final String form : forms) {
+                    size += form.length();
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached forms for the word, or null when the word was never answered for
+     * this language.
+     */
+    @Nullable
+    public List<String> get(@Nonnull final String language, @Nonnull final String word) {
+        return cache.get(key(language, word));
+    }
+
+    public void put(
+    @Nonnull final String language,
+    @Nonnull final String word,
+    @Nonnull final List<String> forms) {
+        cache.put(key(language, word),
+                Collections.unmodifiableList(new ArrayList<String>(forms)));
+    }
+
+    public void invalidate() {
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return "SuggestionCache[size=" + cache.size() + "/" + cache.maxSize()
+                + " hits=" + cache.hitCount() + " misses=" + cache.missCount()
+                + " evictions=" + cache.evictionCount() + "]";
+    }
+
+    @Nonnull
+    private static String key(@Nonnull final String language, @Nonnull final String word) {
+        return language + ':' + Normalizer.normalize(word.trim(), Normalizer.Form.NFC);
+    }
+}
@@ -0,0 +1,129 @@
+package es.lema.orthos.inputmethod.common;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Classifies characters as word separators with a table computed once per language: a bitset
+ * of the Basic Multilingual Plane, 8 KB, and the Unicode categories for the supplementary
+ * code points. Separators are the ASCII punctuation, white space and digits, as the pattern
+ * [\p{Punct}\s\d] the keyboard used before, plus the Unicode punctuation, spaces, digits and
+ * non-ASCII currency, math and modifier symbols, e.g. the inverted marks and quotes of
+ * Spanish. A language may keep some of them inside words. Queries never allocate.
+ */
+public final class WordSeparators {
+    // Longs of the bitset of the Basic Multilingual Plane
+    private static final int BMP_WORDS = 0x10000 / 64;
+
+    // Separators kept inside the words of a language, by language
+    private static final String[][] WORD_CHARACTERS = {
+        // The typographic apostrophe of "don’t", the ASCII one is typed as a separator
+        { "en", "\u2019" },
+    };
+
+    private static final ConcurrentHashMap<String, WordSeparators> separators =
+            new ConcurrentHashMap<String, WordSeparators>();
+    private static final WordSeparators DEFAULT = new WordSeparators("");
+
+    private final long[] bmp = new long[BMP_WORDS];
+    private final String wordCharacters;
+
+    private WordSeparators(@Nonnull final String wordCharacters) {
+        this.wordCharacters = wordCharacters;
+        for (int c = 0; c < 0x10000; c++) {
+            if (isDefaultSeparator(c) && wordCharacters.indexOf(c) < 0) {
+                bmp[c >>> 6] |= 1L << c;
+            }
+        }
+    }
+
+    /**
+     * Get the separators of the language of a subtype locale, e.g. "es_ES"
+     */
+    @Nonnull
+    public static WordSeparators forLocale(@Nullable final String locale) {
+        if (locale == null) {
+            return DEFAULT;
+        }
+        final int underscore = locale.indexOf('_');
+        final String language = underscore >= 0 ? locale.substring(0, underscore) : locale;
+        WordSeparators wordSeparators = separators.get(language);
+        if (wordSeparators == null) {
+            wordSeparators = DEFAULT;
+            for (String[] entry : WORD_CHARACTERS) {
+                if (entry[0].equals(language)) {
+                    wordSeparators = new WordSeparators(entry[1]);
+                }
+            }
+            separators.put(language, wordSeparators);
+        }
+        return wordSeparators;
+    }
+
+    public boolean isSeparator(final char c) {
+        return (bmp[c >>> 6] & (1L << c)) != 0;
+    }
+
+    public boolean isSeparator(final int codePoint) {
+        if (codePoint < 0x10000) {
+            return isSeparator((char) codePoint);
+        }
+        return isDefaultSeparator(codePoint) && wordCharacters.indexOf(codePoint) < 0;
+    }
+
+    /**
+     * Add the words of the text to the list, in order, skipping the separators
+     */
+    public void split(@Nonnull final CharSequence text, @Nonnull final List<String> words) {
+        final int length = text.length();
+        int start = -1;
+        int i = 0;
+        while (i < length) {
+            final int codePoint = Character.codePointAt(text, i);
+            if (isSeparator(codePoint)) {
+                if (start >= 0) {
+                    words.add(text.subSequence(start, i).toString());
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            words.add(text.subSequence(start, length).toString());
+        }
+    }
+
+    private static boolean isDefaultSeparator(final int codePoint) {
+        if (codePoint < 0x80) {
+            // [\p{Punct}\s\d]
+            return codePoint == ' ' || codePoint >= '\t' && codePoint <= '\r'
+                    || codePoint >= '!' && codePoint <= '@'
+                    || codePoint >= '[' && codePoint <= '`'
+                    || codePoint >= '{' && codePoint <= '~';
+        }
+        switch (Character.getType(codePoint)) {
+            case Character.SPACE_SEPARATOR:
+            case Character.LINE_SEPARATOR:
+            case Character.PARAGRAPH_SEPARATOR:
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+            case Character.CURRENCY_SYMBOL:
+            case Character.MATH_SYMBOL:
+            case Character.MODIFIER_SYMBOL:
+                return true;
+            default:
+                return codePoint == 0x85;
+        }
+    }
+}
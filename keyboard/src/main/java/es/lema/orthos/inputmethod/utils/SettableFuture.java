@@ -0,0 +1,105 @@
+package es.lema.orthos.inputmethod.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Future} completed explicitly by its producer. Only the first completion counts.
+ */
+public class SettableFuture<T> implements Future<T> {
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final Object mLock = new Object();
+    private T mValue;
+    private Throwable mException;
+    private boolean mCancelled;
+
+    public boolean set(@Nullable final T value) {
+        synchronized (mLock) {
+            if (isDone()) {
+                return false;
+            }
+            mValue = value;
+            mDone.countDown();
+        }
+        onDone();
+        return true;
+    }
+
+    public boolean setException(@Nonnull final Throwable exception) {
+        synchronized (mLock) {
+            if (isDone()) {
+                return false;
+            }
+            mException = exception;
+            mDone.countDown();
+        }
+        onDone();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        synchronized (mLock) {
+            if (isDone()) {
+                return false;
+            }
+            mCancelled = true;
+            mDone.countDown();
+        }
+        onDone();
+        return true;
+    }
+
+    /**
+     * Called once, on the completing thread, after the future is done.
+     */
+    protected void onDone() {
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return getValue();
+    }
+
+    @Override
+    public T get(final long timeout, @Nonnull final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getValue();
+    }
+
+    private T getValue() throws ExecutionException {
+        synchronized (mLock) {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            if (mException != null) {
+                throw new ExecutionException(mException);
+            }
+            return mValue;
+        }
+    }
+}
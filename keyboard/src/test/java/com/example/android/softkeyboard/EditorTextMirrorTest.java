@@ -0,0 +1,191 @@
+package com.example.android.softkeyboard;
+
+import android.view.inputmethod.EditorInfo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EditorTextMirrorTest {
+    private FakeEditor editor;
+    private EditorTextMirror mirror;
+
+    private void start(@Nonnull final String text, final int cursor) {
+        editor = new FakeEditor(text, cursor);
+        mirror = editor.startMirror();
+    }
+
+    /*
+     * Report the selection of the editor, as onUpdateSelection() does
+     */
+    private boolean report() {
+        return mirror.onUpdateSelection(editor.selectionStart, editor.selectionEnd,
+                editor.composingStart, editor.composingEnd);
+    }
+
+    @Test
+    public void testFirstWriteSentAtOnce() {
+        start("", 0);
+        mirror.setComposingText("c", 1);
+        assertEquals(Arrays.asList("setComposingText"), editor.getWrites());
+        assertEquals("c", editor.text.toString());
+        assertTrue(editor.hasFrame());
+        assertTrue(editor.runFrame());
+        assertEquals(Arrays.asList("setComposingText"), editor.getWrites());
+    }
+
+    @Test
+    public void testBurstCoalesced() {
+        start("", 0);
+        mirror.setComposingText("c", 1);
+        mirror.setComposingText("ca", 1);
+        mirror.setComposingText("cas", 1);
+        assertEquals("c", editor.text.toString());
+        editor.runFrame();
+        // "ca" was replaced before it was sent
+        assertEquals(Arrays.asList("setComposingText", "setComposingText"), editor.getWrites());
+        assertEquals("cas", editor.text.toString());
+        assertEquals(1, mirror.getSavedCallCount());
+    }
+
+    @Test
+    public void testBurstInBatchEdit() {
+        start("", 0);
+        mirror.setComposingText("ca", 1);
+        mirror.setComposingText("cas", 1);
+        mirror.commitText("casa ", 1);
+        mirror.setComposingText("p", 1);
+        editor.runFrame();
+        assertEquals(Arrays.asList("setComposingText", "beginBatchEdit", "commitText",
+                "setComposingText", "endBatchEdit"), editor.getWrites());
+        assertEquals("casa p", editor.text.toString());
+        // One composing text dropped, two batch calls added
+        assertEquals(-1, mirror.getSavedCallCount());
+        // The first write after the frame is sent at once again
+        mirror.finishComposingText();
+        assertEquals("finishComposingText", editor.calls.get(editor.calls.size() - 1));
+    }
+
+    @Test
+    public void testFlushedBeforeDirectUse() {
+        start("", 0);
+        mirror.setComposingText("c", 1);
+        mirror.commitText("casa", 1);
+        mirror.beginBatchEdit();
+        assertEquals(Arrays.asList("setComposingText", "commitText", "beginBatchEdit"),
+                editor.getWrites());
+        // Writes inside a batch edit are not queued
+        mirror.setComposingText("x", 1);
+        mirror.setComposingText("xy", 1);
+        mirror.endBatchEdit();
+        assertEquals(6, editor.getWrites().size());
+        assertEquals("casaxy", editor.text.toString());
+    }
+
+    @Test
+    public void testStartInputFlushes() {
+        start("", 0);
+        final FakeEditor previous = editor;
+        mirror.setComposingText("c", 1);
+        mirror.commitText("casa", 1);
+        final FakeEditor next = new FakeEditor("otro", 4);
+        mirror.onStartInput(next.inputConnection, next.getEditorInfo());
+        // The queued write went to the previous editor, and its frame was cancelled
+        assertEquals("casa", previous.text.toString());
+        assertFalse(previous.hasFrame());
+        assertEquals(Collections.<String>emptyList(), next.getWrites());
+    }
+
+    @Test
+    public void testPredictedSelection() {
+        start("hola ", 5);
+        assertEquals("hola ", mirror.getTextBeforeCursor().toString());
+        mirror.setComposingText("c", 1);
+        assertEquals(6, mirror.getSelectionStart());
+        assertTrue(report());
+        assertEquals("hola c", mirror.getTextBeforeCursor().toString());
+        assertEquals(1, mirror.getWindowReadCount());
+    }
+
+    @Test
+    public void testMergedPredictions() {
+        start("hola ", 5);
+        mirror.getTextBeforeCursor();
+        mirror.setComposingText("c", 1);
+        assertTrue(report());
+        mirror.setComposingText("ca", 1);
+        mirror.setComposingText("cas", 1);
+        editor.runFrame();
+        // The editor reports the last selection of the batch only
+        assertTrue(report());
+        assertTrue(report());
+        assertEquals("hola cas", mirror.getTextBeforeCursor().toString());
+        assertEquals(1, mirror.getWindowReadCount());
+        assertEquals(0, mirror.getDivergenceCount());
+    }
+
+    @Test
+    public void testUnpredictedSelection() {
+        start("hola mundo", 10);
+        mirror.getTextBeforeCursor();
+        editor.selectionStart = editor.selectionEnd = 0;
+        assertFalse(report());
+        assertEquals("", mirror.getTextBeforeCursor().toString());
+        assertEquals("hola mundo", mirror.getTextAfterCursor().toString());
+        assertEquals(2, mirror.getWindowReadCount());
+    }
+
+    @Test
+    public void testCursorMovedInsideWord() {
+        start("hola mundo", 10);
+        mirror.getTextBeforeCursor();
+        editor.selectionStart = editor.selectionEnd = 7;
+        assertFalse(report());
+        assertEquals("hola mu", mirror.getTextBeforeCursor().toString());
+        assertEquals("ndo", mirror.getTextAfterCursor().toString());
+        assertEquals(1, mirror.getWindowReadCount());
+        // Across a separator the text is read again
+        editor.selectionStart = editor.selectionEnd = 2;
+        assertFalse(report());
+        assertEquals("ho", mirror.getTextBeforeCursor().toString());
+        assertEquals(2, mirror.getWindowReadCount());
+    }
+
+    @Test
+    public void testDivergenceChecked() {
+        start("", 0);
+        mirror.getTextBeforeCursor();
+        mirror.commitText("a", 1);
+        editor.runFrame();
+        // The editor changes the text behind the back of the keyboard
+        editor.text.insert(0, "X");
+        editor.selectionStart = editor.selectionEnd = 2;
+        for (int i = 1; i < 16; i++) {
+            mirror.commitText("a", 1);
+            editor.runFrame();
+        }
+        assertEquals(1, mirror.getDivergenceCount());
+        assertEquals(editor.text.toString(), mirror.getTextBeforeCursor().toString());
+    }
+
+    @Test
+    public void testCursorPositionRead() {
+        editor = new FakeEditor("hola", 4);
+        mirror = new EditorTextMirror(editor);
+        final EditorInfo editorInfo = new EditorInfo();
+        editorInfo.initialSelStart = editorInfo.initialSelEnd = -1;
+        mirror.onStartInput(editor.inputConnection, editorInfo);
+        assertEquals(-1, mirror.getSelectionStart());
+        assertEquals(4, mirror.getCursorPosition());
+        assertEquals(1, mirror.getReadCount());
+        assertEquals(4, mirror.getCursorPosition());
+        assertEquals(1, mirror.getReadCount());
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.softkeyboard;
+
+import android.view.Choreographer;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Editor behind an {@link InputConnection}, with the text edits of the connection applied to
+ * a string and every call recorded, and the frames of an {@link EditorTextMirror} run on
+ * demand. Key events are recorded but change nothing.
+ */
+final class FakeEditor implements InvocationHandler, EditorTextMirror.FrameScheduler {
+    final StringBuilder text = new StringBuilder();
+    int selectionStart;
+    int selectionEnd;
+    int composingStart = -1;
+    int composingEnd = -1;
+    // Names of the methods called, in order
+    final List<String> calls = new ArrayList<String>();
+    private Choreographer.FrameCallback frameCallback;
+
+    final InputConnection inputConnection = (InputConnection) Proxy.newProxyInstance(
+            InputConnection.class.getClassLoader(), new Class<?>[] { InputConnection.class },
+            this);
+
+    FakeEditor(@Nonnull final String text, final int cursor) {
+        this.text.append(text);
+        selectionStart = selectionEnd = cursor;
+    }
+
+    /*
+     * A mirror of the editor with its frames run by runFrame(), started as
+     * InputMethodService.onStartInput() does
+     */
+    @Nonnull
+    EditorTextMirror startMirror() {
+        final EditorTextMirror mirror = new EditorTextMirror(this);
+        mirror.onStartInput(inputConnection, getEditorInfo());
+        return mirror;
+    }
+
+    @Nonnull
+    EditorInfo getEditorInfo() {
+        final EditorInfo editorInfo = new EditorInfo();
+        editorInfo.initialSelStart = selectionStart;
+        editorInfo.initialSelEnd = selectionEnd;
+        return editorInfo;
+    }
+
+    /*
+     * Run the frame callback posted, returns false if there was none
+     */
+    boolean runFrame() {
+        final Choreographer.FrameCallback callback = frameCallback;
+        frameCallback = null;
+        if (callback == null) {
+            return false;
+        }
+        callback.doFrame(0);
+        return true;
+    }
+
+    boolean hasFrame() {
+        return frameCallback != null;
+    }
+
+    /*
+     * Calls of the editing methods, the reads aside
+     */
+    @Nonnull
+    List<String> getWrites() {
+        final List<String> writes = new ArrayList<String>();
+        for (String call : calls) {
+            if (!call.startsWith("get")) {
+                writes.add(call);
+            }
+        }
+        return writes;
+    }
+
+    int count(@Nonnull final String name) {
+        int count = 0;
+        for (String call : calls) {
+            count += call.equals(name) ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Override
+    public void postFrameCallback(@Nonnull final Choreographer.FrameCallback callback) {
+        frameCallback = callback;
+    }
+
+    @Override
+    public void removeFrameCallback(@Nonnull final Choreographer.FrameCallback callback) {
+        if (frameCallback == callback) {
+            frameCallback = null;
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        final String name = method.getName();
+        calls.add(name);
+        if (name.equals("getTextBeforeCursor")) {
+            final int length = (Integer) args[0];
+            return text.substring(Math.max(0, selectionStart - length), selectionStart);
+        } else if (name.equals("getTextAfterCursor")) {
+            final int length = (Integer) args[0];
+            return text.substring(selectionEnd, Math.min(text.length(), selectionEnd + length));
+        } else if (name.equals("commitText")) {
+            replace(args[0].toString(), (Integer) args[1]);
+            composingStart = composingEnd = -1;
+        } else if (name.equals("setComposingText")) {
+            final String composing = args[0].toString();
+            composingStart = replace(composing, (Integer) args[1]);
+            composingEnd = composingStart + composing.length();
+        } else if (name.equals("setComposingRegion")) {
+            composingStart = Math.min((Integer) args[0], (Integer) args[1]);
+            composingEnd = Math.max((Integer) args[0], (Integer) args[1]);
+        } else if (name.equals("finishComposingText")) {
+            composingStart = composingEnd = -1;
+        }
+        final Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return true;
+        } else if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    /*
+     * Replace the composing text, or else the selection, as InputConnection.commitText()
+     */
+    private int replace(@Nonnull final String replacement, final int newCursorPosition) {
+        final int start = composingStart >= 0 ? composingStart : selectionStart;
+        final int end = composingStart >= 0 ? composingEnd : selectionEnd;
+        text.replace(start, end, replacement);
+        final int cursor = newCursorPosition > 0
+                ? start + replacement.length() + newCursorPosition - 1
+                : start + newCursorPosition;
+        selectionStart = selectionEnd = cursor;
+        return start;
+    }
+}
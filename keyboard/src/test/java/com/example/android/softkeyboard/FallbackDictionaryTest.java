@@ -0,0 +1,167 @@
+package com.example.android.softkeyboard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.inputmethod.dicttool.DictionaryBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FallbackDictionaryTest {
+    private static final File DICTIONARIES = new File("src/main/dictionaries");
+    private static final File ASSETS = new File("src/main/assets/dict");
+
+    private FallbackDictionary dictionary;
+
+    @Before
+    public void setUp() {
+        dictionary = FallbackDictionary.wrap(ByteBuffer.wrap(new DictionaryBuilder()
+                .add("para", 255)
+                .add("pero", 250)
+                .add("casa", 200)
+                .add("cosa", 180)
+                .add("caso", 150)
+                .add("casas", 120)
+                .add("perro", 100)
+                .add("cama", 90)
+                .build()));
+        assertNotNull(dictionary);
+    }
+
+    @Test
+    public void testContains() {
+        assertTrue(dictionary.contains("casa"));
+        assertTrue(dictionary.contains("casas"));
+        assertFalse(dictionary.contains("cas"));
+        assertFalse(dictionary.contains("casass"));
+        assertFalse(dictionary.contains(""));
+    }
+
+    @Test
+    public void testCompletions() {
+        // Corrections one insertion away, then completions, the most frequent first
+        assertEquals(Arrays.asList("casa", "caso", "casas"), dictionary.suggest("cas", 8));
+        assertEquals(Arrays.asList("casa", "caso"), dictionary.suggest("cas", 2));
+    }
+
+    @Test
+    public void testCorrections() {
+        // The word itself first
+        assertEquals(Arrays.asList("pero", "perro"), dictionary.suggest("pero", 8));
+        // Substitution
+        assertEquals(Arrays.asList("casa", "cosa"), dictionary.suggest("cesa", 8));
+        // Transposition
+        assertEquals(Collections.singletonList("cosa"), dictionary.suggest("csoa", 8));
+        // Deletion
+        assertEquals(Arrays.asList("casa", "casas"), dictionary.suggest("cassa", 8));
+        assertEquals(Collections.<String>emptyList(), dictionary.suggest("xyz", 8));
+    }
+
+    @Test
+    public void testCapitalized() {
+        assertEquals(Arrays.asList("Pero", "Perro"), dictionary.suggest("Pero", 8));
+        assertEquals(Arrays.asList("Casa", "Caso", "Casas"), dictionary.suggest("Cas", 8));
+        // Only the first letter is folded
+        assertEquals(Collections.<String>emptyList(), dictionary.suggest("PERO", 8));
+    }
+
+    @Test
+    public void testWords() {
+        assertEquals(Arrays.asList(
+                "cama", "casa", "casas", "caso", "cosa", "para", "pero", "perro"),
+                dictionary.getWords());
+    }
+
+    @Test
+    public void testInvalidHeader() {
+        assertNull(FallbackDictionary.wrap(ByteBuffer.allocate(4)));
+        assertNull(FallbackDictionary.wrap(ByteBuffer.allocate(12)));
+        final byte[] data = new DictionaryBuilder().add("casa", 1).build();
+        data[7]++;
+        assertNull(FallbackDictionary.wrap(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void testWordListFrequencies() throws IOException {
+        final DictionaryBuilder builder = new DictionaryBuilder().addWordList(
+                new StringReader("# Comment\ncosa\ncasa\n\ncaso\t255\ncosa\n"));
+        assertEquals(3, builder.getWordCount());
+        final FallbackDictionary wordList =
+                FallbackDictionary.wrap(ByteBuffer.wrap(builder.build()));
+        assertNotNull(wordList);
+        // Ranked by their line
+        assertEquals(Arrays.asList("cosa", "casa"), wordList.suggest("csa", 8));
+        // Unless their frequency is given
+        assertEquals(Arrays.asList("caso", "casa"), wordList.suggest("cas", 8));
+    }
+
+    @Test
+    public void testShippedDictionaries() throws IOException {
+        final File[] wordLists = DICTIONARIES.listFiles();
+        assertNotNull(wordLists);
+        for (File wordList : wordLists) {
+            final String language = wordList.getName().replace(".txt", "");
+            final byte[] data = readAsset(language);
+            // The assets are rebuilt whenever the word lists change
+            assertArrayEquals(language, build(wordList), data);
+            assertNotNull(language, FallbackDictionary.wrap(ByteBuffer.wrap(data)));
+        }
+    }
+
+    @Test
+    public void testSpanish() throws IOException {
+        final FallbackDictionary spanish =
+                FallbackDictionary.wrap(ByteBuffer.wrap(readAsset("es")));
+        assertNotNull(spanish);
+        assertTrue(spanish.contains("canción"));
+        assertEquals("también", spanish.suggest("tambien", 8).get(0));
+        assertEquals("Después", spanish.suggest("Despues", 8).get(0));
+    }
+
+    @Nonnull
+    private static byte[] build(@Nonnull final File wordList) throws IOException {
+        final Reader reader = new InputStreamReader(new FileInputStream(wordList), "UTF-8");
+        try {
+            return new DictionaryBuilder().addWordList(reader).build();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Nonnull
+    private static byte[] readAsset(@Nonnull final String language) throws IOException {
+        final File file = new File(ASSETS, language + ".dict");
+        final byte[] data = new byte[(int) file.length()];
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                final int count = input.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("Truncated " + file);
+                }
+                read += count;
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+}
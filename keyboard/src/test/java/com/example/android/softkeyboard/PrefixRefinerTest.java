@@ -0,0 +1,74 @@
+package com.example.android.softkeyboard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PrefixRefinerTest {
+    private PrefixRefiner refiner;
+
+    @Before
+    public void setUp() {
+        refiner = new PrefixRefiner();
+        refiner.seed("es", "ca", Arrays.asList("cama", "casa", "cosa", "caso", "perro"));
+    }
+
+    @Test
+    public void testRefine() {
+        // Ordered by distance to their closest prefix, Orthos order among equals
+        assertEquals(Arrays.asList("casa", "caso", "cama", "cosa"), refiner.refine("es", "cas"));
+        // Refined again from the survivors
+        assertEquals(Arrays.asList("casa", "caso", "cama", "cosa"), refiner.refine("es", "casa"));
+    }
+
+    @Test
+    public void testIgnoresCase() {
+        refiner.seed("es", "Ca", Arrays.asList("casa", "Cosa", "caso"));
+        assertEquals(Arrays.asList("casa", "caso", "Cosa"), refiner.refine("es", "CaS"));
+    }
+
+    @Test
+    public void testNotAnExtension() {
+        assertNull(refiner.refine("es", "ca"));
+        assertNull(refiner.refine("es", "co"));
+        assertNull(refiner.refine("es", "c"));
+        assertNull(refiner.refine("en", "cas"));
+        // Nothing was refined, so there is no partial answer either
+        assertNull(refiner.getPartial());
+    }
+
+    @Test
+    public void testTooFewCandidates() {
+        refiner.seed("es", "pe", Arrays.asList("perro", "pero", "casa"));
+        assertNull(refiner.refine("es", "pez"));
+        assertEquals(Arrays.asList("perro", "pero"), refiner.getPartial());
+        // The refiner was reset and must be seeded again
+        assertNull(refiner.refine("es", "pezz"));
+    }
+
+    @Test
+    public void testBestTooFar() {
+        refiner.seed("es", "ca", Arrays.asList("cama", "cana", "capa"));
+        // Every candidate is two edits away from "caxx"
+        assertNull(refiner.refine("es", "caxx"));
+        assertEquals(Arrays.asList("cama", "cana", "capa"), refiner.getPartial());
+    }
+
+    @Test
+    public void testSeedClearsPartial() {
+        refiner.refine("es", "cas");
+        refiner.seed("es", "ca", Arrays.asList("casa"));
+        assertNull(refiner.getPartial());
+    }
+
+    @Test
+    public void testNotSeeded() {
+        assertNull(new PrefixRefiner().refine("es", "casa"));
+        refiner.reset();
+        assertNull(refiner.refine("es", "cas"));
+    }
+}
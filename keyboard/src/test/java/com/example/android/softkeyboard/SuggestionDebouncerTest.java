@@ -0,0 +1,62 @@
+package com.example.android.softkeyboard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionDebouncerTest {
+    private static final long MAX_DELAY = 200;
+
+    private SuggestionDebouncer debouncer;
+
+    @Before
+    public void setUp() {
+        debouncer = new SuggestionDebouncer(MAX_DELAY);
+        debouncer.onQueryCompleted("es", 50);
+    }
+
+    /*
+     * Press keys every interval, returns the time of the last one
+     */
+    private long type(final long start, final int count, final long interval) {
+        long now = start;
+        for (int i = 0; i < count; i++) {
+            now = start + i * interval;
+            debouncer.onKeyPressed(now);
+        }
+        return now;
+    }
+
+    @Test
+    public void testBurst() {
+        final long now = type(1000, 20, 100);
+        // About one and a half key interval
+        assertEquals(150, debouncer.getDelay("es", now, false), 10);
+        assertEquals(MAX_DELAY, debouncer.getDelay("es", now, true));
+    }
+
+    @Test
+    public void testPause() {
+        final long now = type(1000, 20, 100);
+        // A word typed slowly, known or not, is queried at once
+        final long slow = type(now + 1000, 3, 500);
+        assertEquals(0, debouncer.getDelay("es", slow, false));
+        assertEquals(0, debouncer.getDelay("es", slow, true));
+        // And so is the last word of a burst once the user stops
+        final long last = type(slow + 1000, 20, 100);
+        assertEquals(0, debouncer.getDelay("es", last + 400, true));
+    }
+
+    @Test
+    public void testFastQueries() {
+        final long now = type(1000, 20, 100);
+        // Unknown latency, or answers from the caches
+        assertEquals(0, debouncer.getDelay("en", now, false));
+        for (int i = 0; i < 10; i++) {
+            debouncer.onQueryCompleted("es", 1);
+        }
+        assertEquals(0, debouncer.getDelay("es", now, false));
+        assertEquals(MAX_DELAY, debouncer.getDelay("es", now, true));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.softkeyboard;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionMergerTest {
+
+    @Test
+    public void testPositionAndPenalty() {
+        // No typed word, ranked by position plus the penalty of the source
+        assertEquals(Arrays.asList("casa", "cosa", "caso", "cesta"),
+                new SuggestionMerger(null, 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST, Arrays.asList("casa", "cosa"))
+                        .add(SuggestionMerger.SOURCE_ALTERNATIVE, Arrays.asList("caso", "cesta"))
+                        .merge());
+    }
+
+    @Test
+    public void testDuplicates() {
+        assertEquals(Arrays.asList("casa", "cosa"),
+                new SuggestionMerger(null, 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST, Arrays.asList("casa", "cosa", "casa"))
+                        .merge());
+    }
+
+    @Test
+    public void testAgreement() {
+        // Returned by both sources, "caso" beats the first nearest form
+        assertEquals(Arrays.asList("caso", "casa", "cosa"),
+                new SuggestionMerger(null, 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST, Arrays.asList("casa", "caso", "cosa"))
+                        .add(SuggestionMerger.SOURCE_ALTERNATIVE, Arrays.asList("caso"))
+                        .add(SuggestionMerger.SOURCE_CACHE, Arrays.asList("caso"))
+                        .merge());
+    }
+
+    @Test
+    public void testDistance() {
+        assertEquals(Arrays.asList("caso", "casa", "cosas"),
+                new SuggestionMerger("caso", 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST,
+                                Arrays.asList("cosas", "casa", "caso"))
+                        .merge());
+        // Closer forms of a less reliable source beat farther ones
+        assertEquals(Arrays.asList("perro", "pero", "perros"),
+                new SuggestionMerger("perro", 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST, Arrays.asList("pero", "perros"))
+                        .add(SuggestionMerger.SOURCE_ALTERNATIVE, Arrays.asList("perro"))
+                        .merge());
+    }
+
+    @Test
+    public void testDistanceIgnoresAccentsAndCase() {
+        final SuggestionMerger merger = new SuggestionMerger("Cancion", 8);
+        assertEquals(0, merger.distance("canción"));
+        assertEquals(0, merger.distance("CANCIÓN"));
+        assertEquals(2, merger.distance("canciones"));
+        assertEquals(Arrays.asList("canción", "canciones"), merger
+                .add(SuggestionMerger.SOURCE_NEAREST, Arrays.asList("canciones", "canción"))
+                .merge());
+    }
+
+    @Test
+    public void testDistanceEdits() {
+        final SuggestionMerger merger = new SuggestionMerger("caso", 8);
+        assertEquals(0, merger.distance("caso"));
+        assertEquals(1, merger.distance("casa"));
+        assertEquals(1, merger.distance("csao"));
+        assertEquals(1, merger.distance("cas"));
+        assertEquals(1, merger.distance("casos"));
+        assertEquals(2, merger.distance("cosa"));
+        assertEquals(SuggestionMerger.MAX_DISTANCE, merger.distance("perro"));
+        assertEquals(SuggestionMerger.MAX_DISTANCE, merger.distance("casamentero"));
+        assertEquals(SuggestionMerger.MAX_DISTANCE, merger.distance(""));
+        assertEquals(0, new SuggestionMerger(null, 8).distance("perro"));
+    }
+
+    @Test
+    public void testMaxCount() {
+        assertEquals(Arrays.asList("caso", "casa"),
+                new SuggestionMerger("caso", 2)
+                        .add(SuggestionMerger.SOURCE_NEAREST,
+                                Arrays.asList("cosa", "casa", "caso", "cesta"))
+                        .merge());
+        assertEquals(Collections.<String>emptyList(),
+                new SuggestionMerger("caso", 2)
+                        .add(SuggestionMerger.SOURCE_NEAREST, null)
+                        .merge());
+    }
+
+    @Test
+    public void testStableOrder() {
+        // Same distance and score, the order in which they were added
+        assertEquals(Arrays.asList("cosa", "casa"),
+                new SuggestionMerger("cesa", 8)
+                        .add(SuggestionMerger.SOURCE_NEAREST, Collections.singletonList("cosa"))
+                        .add(SuggestionMerger.SOURCE_CACHE, Collections.singletonList("casa"))
+                        .merge());
+    }
+}
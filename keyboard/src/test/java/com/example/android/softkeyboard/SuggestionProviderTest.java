@@ -0,0 +1,199 @@
+package com.example.android.softkeyboard;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.AccentIndex;
+import es.lema.orthos.LocalOrthosAsyncSession;
+import es.lema.orthos.OrthosAsyncClient;
+import es.lema.orthos.OrthosServiceManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SuggestionProviderTest {
+    private static final String LOCALE = "es_ES";
+    private static final long TIMEOUT = 1000;
+
+    /*
+     * Context of a keyboard that never binds with the Orthos service
+     */
+    private static final class UnboundContext extends ContextWrapper {
+        UnboundContext() {
+            super(null);
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+            return false;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return new File(System.getProperty("java.io.tmpdir"));
+        }
+    }
+
+    private static final SuggestionProvider.Listener IGNORED = new SuggestionProvider.Listener() {
+        @Override
+        public void onPartialSuggestions(@Nonnull List<String> words) {
+        }
+
+        @Override
+        public void onAnswered() {
+        }
+    };
+
+    /*
+     * Records the partial candidates and whether the answer was complete
+     */
+    private static final class Recorder implements SuggestionProvider.Listener {
+        final List<List<String>> partials = new ArrayList<List<String>>();
+        int answeredCount;
+
+        @Override
+        public void onPartialSuggestions(@Nonnull List<String> words) {
+            partials.add(words);
+        }
+
+        @Override
+        public void onAnswered() {
+            answeredCount++;
+        }
+    }
+
+    private OrthosServiceManager manager;
+    private LocalOrthosAsyncSession session;
+    private SuggestionProvider provider;
+
+    @Before
+    public void setUp() {
+        manager = OrthosServiceManager.create(new UnboundContext());
+        session = new LocalOrthosAsyncSession(Arrays.asList(
+                "casa", "caso", "cosa", "cesta", "pero", "perro", "perra", "cerro", "canción"));
+        manager.setAsyncSessionOverride(session);
+        // Shared by the instances of the manager
+        manager.getSuggestionCache().invalidate();
+        provider = new SuggestionProvider(null);
+    }
+
+    @After
+    public void tearDown() {
+        session.release();
+        manager.setAsyncSessionOverride(null);
+        session.shutdown();
+    }
+
+    @Test
+    public void testAsyncSessionOverride() throws Exception {
+        final Recorder recorder = new Recorder();
+        assertEquals(Arrays.asList("caso", "casa", "cosa"),
+                provider.getSuggestions(new SuggestionRequest(1, LOCALE, "caso"), recorder));
+        assertEquals(1, recorder.answeredCount);
+        assertEquals(0, getClient().getPendingCount());
+        assertEquals(0, session.getCancelCount());
+        // Answered again from the cache
+        final int hits = manager.getSuggestionCache().getHitCount();
+        provider.getSuggestions(new SuggestionRequest(2, LOCALE, "caso"), recorder);
+        assertEquals(2, recorder.answeredCount);
+        assertEquals(hits + 1, manager.getSuggestionCache().getHitCount());
+    }
+
+    @Test
+    public void testCancelAtDeadline() throws Exception {
+        session.hold();
+        final Recorder recorder = new Recorder();
+        final List<String> words =
+                provider.getSuggestions(new SuggestionRequest(1, LOCALE, "perro"), recorder);
+        // Neither phase answered in time, and there is no fallback dictionary
+        assertEquals(Collections.<String>emptyList(), words);
+        // Replayed when the service is ready again
+        assertEquals(0, recorder.answeredCount);
+        assertEquals(2, session.getCancelCount());
+        assertEquals(0, getClient().getPendingCount());
+    }
+
+    @Test
+    public void testPartialAtDeadline() throws Exception {
+        session.holdAlternatives();
+        final Recorder recorder = new Recorder();
+        final List<String> words =
+                provider.getSuggestions(new SuggestionRequest(1, LOCALE, "caso"), recorder);
+        // The nearest forms painted are kept, only the alternatives were cancelled
+        assertEquals(Collections.singletonList(Arrays.asList("caso", "casa", "cosa")),
+                recorder.partials);
+        assertEquals(0, recorder.answeredCount);
+        assertEquals(Arrays.asList("caso", "casa", "cosa"), words);
+        assertEquals(1, session.getCancelCount());
+        assertEquals(0, getClient().getPendingCount());
+        // Nor is the incomplete answer cached
+        assertNull(manager.getSuggestionCache().get("es", "caso"));
+    }
+
+    @Test
+    public void testNearestSkipped() throws Exception {
+        final AccentIndex accentIndex = manager.getAccentIndex();
+        accentIndex.learn("es", Collections.singletonList("canción"));
+        final int skipped = accentIndex.getSkippedQueryCount();
+        // The accent index knows the only form, the alternatives are still asked
+        assertEquals(Collections.singletonList("canción"),
+                provider.getSuggestions(new SuggestionRequest(1, LOCALE, "cancion"), IGNORED));
+        assertEquals(skipped + 1, accentIndex.getSkippedQueryCount());
+        // Not when it knows several
+        manager.getSuggestionCache().invalidate();
+        accentIndex.learn("es", Collections.singletonList("cancíon"));
+        provider.getSuggestions(new SuggestionRequest(2, LOCALE, "cancion"), IGNORED);
+        assertEquals(skipped + 1, accentIndex.getSkippedQueryCount());
+    }
+
+    @Test(timeout = 5000)
+    public void testCancelWhenInterrupted() throws Exception {
+        session.hold();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                provider.getSuggestions(new SuggestionRequest(1, LOCALE, "cerro"), IGNORED);
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        thread.start();
+        final OrthosAsyncClient client = getClient();
+        while (client.getPendingCount() < 2) {
+            Thread.sleep(1);
+        }
+        thread.interrupt();
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+        assertTrue(interrupted.get());
+        assertEquals(2, session.getCancelCount());
+        assertEquals(0, client.getPendingCount());
+    }
+
+    @Nonnull
+    private OrthosAsyncClient getClient() throws Exception {
+        return manager.getAsyncClient(LOCALE, OrthosServiceManager.CHANNEL_NEAREST);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.softkeyboard;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.inputmethod.common.WordSeparators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WordBoundaryTrackerTest {
+    private FakeEditor editor;
+    private EditorTextMirror mirror;
+    private WordBoundaryTracker tracker;
+
+    private void start(@Nonnull final String text, final int cursor) {
+        editor = new FakeEditor(text, cursor);
+        mirror = editor.startMirror();
+        mirror.setWordSeparators(WordSeparators.forLocale("es_ES"));
+        tracker = new WordBoundaryTracker(mirror);
+        tracker.update();
+    }
+
+    private void moveCursor(final int cursor) {
+        editor.selectionStart = editor.selectionEnd = cursor;
+        mirror.onUpdateSelection(cursor, cursor, -1, -1);
+        tracker.update();
+    }
+
+    @Test
+    public void testWordAroundCursor() {
+        start("hola mundo", 7);
+        assertEquals("mu", tracker.getTextBefore());
+        assertEquals("ndo", tracker.getTextAfter());
+    }
+
+    @Test
+    public void testBoundaries() {
+        start("hola mundo", 0);
+        assertEquals("", tracker.getTextBefore());
+        assertEquals("hola", tracker.getTextAfter());
+        start("hola mundo", 10);
+        assertEquals("mundo", tracker.getTextBefore());
+        assertEquals("", tracker.getTextAfter());
+        start("hola mundo", 4);
+        assertEquals("hola", tracker.getTextBefore());
+        assertEquals("", tracker.getTextAfter());
+    }
+
+    @Test
+    public void testSeparators() {
+        start("¿Qué tal?", 3);
+        assertEquals("Qu", tracker.getTextBefore());
+        assertEquals("é", tracker.getTextAfter());
+        start("«gracias», dijo", 5);
+        assertEquals("grac", tracker.getTextBefore());
+        assertEquals("ias", tracker.getTextAfter());
+    }
+
+    @Test
+    public void testCursorMovedInsideWord() {
+        start("hola mundo", 10);
+        moveCursor(7);
+        assertEquals("mu", tracker.getTextBefore());
+        assertEquals("ndo", tracker.getTextAfter());
+        moveCursor(5);
+        assertEquals("", tracker.getTextBefore());
+        assertEquals("mundo", tracker.getTextAfter());
+        // The word was found once and reused while only the cursor moved
+        assertTrue(tracker.toString(), tracker.toString().contains("scans=1 reuses=2"));
+        moveCursor(2);
+        assertEquals("ho", tracker.getTextBefore());
+        assertEquals("la", tracker.getTextAfter());
+        assertTrue(tracker.toString(), tracker.toString().contains("scans=2"));
+    }
+
+    @Test
+    public void testEdit() {
+        start("hola ", 5);
+        mirror.setComposingText("mun", 1);
+        tracker.update();
+        assertEquals("mun", tracker.getTextBefore());
+        assertEquals("", tracker.getTextAfter());
+        assertTrue(tracker.toString(), tracker.toString().contains("scans=2 reuses=0"));
+    }
+}
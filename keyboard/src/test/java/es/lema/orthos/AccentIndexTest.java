@@ -0,0 +1,55 @@
+package es.lema.orthos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AccentIndexTest {
+
+    @Test
+    public void testFold() {
+        assertEquals("cancion", AccentIndex.fold("canción"));
+        assertEquals("pinguino", AccentIndex.fold("pingüino"));
+        // "ñ" has its own key
+        assertEquals("año", AccentIndex.fold("año"));
+    }
+
+    @Test
+    public void testLookup() {
+        final AccentIndex index = new AccentIndex(AccentIndex.DEFAULT_MAX_KEYS);
+        index.learn("es", Arrays.asList("canción", "camión", "casa"));
+        assertEquals(Collections.singletonList("canción"), index.lookup("es", "cancion"));
+        assertEquals(Collections.singletonList("Camión"), index.lookup("es", "Camion"));
+        // Known as typed, typed with accents, or in another language
+        assertNull(index.lookup("es", "casa"));
+        assertNull(index.lookup("es", "canción"));
+        assertNull(index.lookup("en", "cancion"));
+        assertEquals(5, index.getLookupCount());
+        assertEquals(2, index.getAnswerCount());
+    }
+
+    @Test
+    public void testSeed() {
+        final AccentIndex index = new AccentIndex(AccentIndex.DEFAULT_MAX_KEYS);
+        index.seed("es", Arrays.asList("esta", "está", "también", "casa"));
+        // A word of the list is never corrected
+        assertNull(index.lookup("es", "esta"));
+        assertEquals(Collections.singletonList("también"), index.lookup("es", "tambien"));
+        // Words without accents are not kept
+        assertEquals("AccentIndex[keys=2/16384 lookups=2 answers=1 skipped=0]", index.toString());
+    }
+
+    @Test
+    public void testEvicted() {
+        final AccentIndex index = new AccentIndex(2);
+        index.learn("es", Arrays.asList("canción", "camión"));
+        index.lookup("es", "cancion");
+        index.learn("es", Collections.singletonList("también"));
+        assertNull(index.lookup("es", "camion"));
+        assertEquals(Collections.singletonList("canción"), index.lookup("es", "cancion"));
+    }
+}
@@ -0,0 +1,79 @@
+package es.lema.orthos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.service.WordList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InflectionCacheTest {
+
+    @Nonnull
+    private static WordList words(@Nonnull final String lemma, @Nonnull final String... forms) {
+        final WordList words = new WordList();
+        for (String form : forms) {
+            words.add(lemma, form, 0);
+        }
+        return words;
+    }
+
+    @Test
+    public void testLearn() {
+        final InflectionCache cache = new InflectionCache(InflectionCache.DEFAULT_MAX_SIZE);
+        cache.learn("es", words("casar", "casó", "casaré"));
+        assertEquals(Collections.singletonList("casaré"), cache.getInflections("es", "casó"));
+        assertEquals(Collections.<String>emptyList(), cache.getInflections("en", "casó"));
+        assertEquals(Collections.<String>emptyList(), cache.getInflections("es", "casa"));
+    }
+
+    @Test
+    public void testPending() {
+        final InflectionCache cache = new InflectionCache(InflectionCache.DEFAULT_MAX_SIZE);
+        assertFalse(cache.hasPending());
+        cache.learn("es", words("casar", "casó"));
+        cache.learn("es", words("casa", "casas"));
+        cache.learn("es", words("casar", "casaré"));
+        // Queued once, in the order they were last seen
+        assertArrayEquals(new String[] { "es", "casa" }, cache.pollPending());
+        assertArrayEquals(new String[] { "es", "casar" }, cache.pollPending());
+        assertNull(cache.pollPending());
+    }
+
+    @Test
+    public void testLearnLemma() {
+        final InflectionCache cache = new InflectionCache(InflectionCache.DEFAULT_MAX_SIZE);
+        cache.learn("es", words("casar", "casó"));
+        cache.pollPending();
+        // Bounded answer, the form already known is kept
+        cache.learnLemma("es", "casar", words("casar", "caso", "casas"));
+        assertEquals(Arrays.asList("casó", "casas"), cache.getInflections("es", "caso"));
+        // Expanded lemmas are not queued again
+        cache.learn("es", words("casar", "casaba"));
+        assertFalse(cache.hasPending());
+        assertEquals(Arrays.asList("casó", "caso", "casas"), cache.getInflections("es", "casaba"));
+    }
+
+    @Test
+    public void testEvictedBySize() {
+        // The forms of two lemmas, 16 characters retained by every entry and its key
+        final InflectionCache cache = new InflectionCache(2 * (16 + 8 + 8));
+        cache.learn("es", words("casar", "casó", "casa"));
+        cache.learn("es", words("comer", "comí", "come"));
+        cache.getInflections("es", "casó");
+        cache.learn("es", words("salir", "salí", "sale"));
+        // The least recently used lemma was evicted
+        assertEquals(Collections.<String>emptyList(), cache.getInflections("es", "comí"));
+        assertEquals(Collections.singletonList("casa"), cache.getInflections("es", "casó"));
+        assertEquals(Collections.singletonList("sale"), cache.getInflections("es", "salí"));
+        assertTrue(cache.toString(), cache.toString().contains("evictions=1"));
+    }
+}
@@ -0,0 +1,83 @@
+package es.lema.orthos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LexiconFilterTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("lexicon-es", ".bloom");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLearn() throws IOException {
+        final LexiconFilter filter = open();
+        assertFalse(filter.mightContain("casa"));
+        filter.learn("casa", true);
+        filter.learn("casa", true);
+        filter.learn("perro", true);
+        filter.learn("cassa", false);
+        assertTrue(filter.mightContain("casa"));
+        assertTrue(filter.mightContain("perro"));
+        assertFalse(filter.mightContain("cassa"));
+        assertEquals(2, filter.getCount());
+        // Two of the four queries, before and after learning
+        assertEquals(0.5, filter.getHitRate(), 0);
+        assertEquals(0, filter.getFalsePositiveRate(), 0);
+    }
+
+    @Test
+    public void testNormalized() throws IOException {
+        final LexiconFilter filter = open();
+        filter.learn("canción", true);
+        // The same word with a combining accent
+        assertTrue(filter.mightContain("cancio\u0301n"));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        open().learn("casa", true);
+        final LexiconFilter filter = open();
+        assertTrue(filter.mightContain("casa"));
+        assertEquals(1, filter.getCount());
+        // Written with another size, the filter starts empty
+        final LexiconFilter resized = LexiconFilter.open(file,
+                LexiconFilter.DEFAULT_BITS / 2, LexiconFilter.DEFAULT_HASHES);
+        assertFalse(resized.mightContain("casa"));
+        assertEquals(0, resized.getCount());
+    }
+
+    @Test
+    public void testFalsePositives() throws IOException {
+        // Saturated, every word seems known
+        final LexiconFilter filter = LexiconFilter.open(file, 64, 2);
+        for (int i = 0; i < 200; i++) {
+            filter.learn("palabra" + i, true);
+        }
+        assertTrue(filter.getExpectedFalsePositiveRate() > 0.5);
+        for (int i = 0; i < 10; i++) {
+            filter.learn("otra" + i, false);
+        }
+        assertEquals(1, filter.getFalsePositiveRate(), 0);
+    }
+
+    private LexiconFilter open() throws IOException {
+        return LexiconFilter.open(file, LexiconFilter.DEFAULT_BITS, LexiconFilter.DEFAULT_HASHES);
+    }
+}
@@ -0,0 +1,123 @@
+package es.lema.orthos;
+
+import android.os.RemoteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import es.lema.orthos.service.Word;
+import es.lema.orthos.service.WordList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrthosAsyncClientTest {
+    private static final long TIMEOUT = 1000;
+
+    private LocalOrthosAsyncSession session;
+    private OrthosAsyncClient client;
+
+    @Before
+    public void setUp() {
+        session = new LocalOrthosAsyncSession(
+                Arrays.asList("casa", "caso", "cosa", "más", "mas", "Mas"));
+        client = new OrthosAsyncClient(session);
+    }
+
+    @After
+    public void tearDown() {
+        session.release();
+        session.shutdown();
+    }
+
+    @Test
+    public void testNearest() throws Exception {
+        final WordList words = client.nearest("caso", 10, 1, null)
+                .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("caso", "casa"), getForms(words));
+    }
+
+    @Test
+    public void testNearestMaxCount() throws Exception {
+        final WordList words = client.nearest("caso", 2, 2, null)
+                .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("caso", "casa"), getForms(words));
+    }
+
+    @Test
+    public void testAlternative() throws Exception {
+        final WordList words = client.alternative("mas", 10, 0, null)
+                .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("más", "Mas"), getForms(words));
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Future<WordList>> completed = new ArrayList<Future<WordList>>();
+        final Future<WordList> future = client.nearest("cosa", 10, 0,
+                new OrthosAsyncClient.Listener() {
+                    @Override
+                    public void onDone(@Nonnull final Future<WordList> future) {
+                        completed.add(future);
+                        done.countDown();
+                    }
+                });
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(future), completed);
+        assertEquals(Arrays.asList("cosa"), getForms(future.get()));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        session.hold();
+        final Future<WordList> future = client.nearest("casa", 10, 1, null);
+        assertEquals(1, client.getPendingCount());
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertEquals(0, client.getPendingCount());
+        assertEquals(1, session.getCancelCount());
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The request was cancelled");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        session.hold();
+        final Future<WordList> future = client.alternative("mas", 10, 0, null);
+        client.close();
+        assertEquals(0, client.getPendingCount());
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The request was failed by close()");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteException);
+        }
+    }
+
+    @Nonnull
+    private static List<String> getForms(@Nonnull final WordList words) {
+        final List<String> forms = new ArrayList<String>();
+        for (Word word : words) {
+            forms.add(word.getForm());
+        }
+        return forms;
+    }
+}
@@ -0,0 +1,69 @@
+package es.lema.orthos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SuggestionCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        final SuggestionCache cache = new SuggestionCache(SuggestionCache.DEFAULT_MAX_SIZE);
+        assertNull(cache.get("es", "caso"));
+        cache.put("es", "caso", Arrays.asList("caso", "casa"));
+        assertEquals(Arrays.asList("caso", "casa"), cache.get("es", "caso"));
+        // Keyed by language
+        assertNull(cache.get("en", "caso"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testNormalizedKey() {
+        final SuggestionCache cache = new SuggestionCache(SuggestionCache.DEFAULT_MAX_SIZE);
+        cache.put("es", "canción", Collections.singletonList("canción"));
+        // Decomposed and surrounded by spaces, the same word
+        assertEquals(Collections.singletonList("canción"),
+                cache.get("es", " cancio\u0301n "));
+    }
+
+    @Test
+    public void testEvictedBySize() {
+        // Every entry retains 16 characters and its key and forms
+        final SuggestionCache cache = new SuggestionCache(3 * (16 + 7 + 4));
+        final List<String> forms = Collections.singletonList("casa");
+        cache.put("es", "casa", forms);
+        cache.put("es", "cosa", forms);
+        cache.put("es", "caso", forms);
+        // The least recently used entry goes first
+        cache.get("es", "casa");
+        cache.put("es", "cesa", forms);
+        assertNull(cache.get("es", "cosa"));
+        assertEquals(forms, cache.get("es", "casa"));
+        assertEquals(forms, cache.get("es", "cesa"));
+        // A long answer pushes out several short ones
+        cache.put("es", "cama", Arrays.asList("cama", "camas", "camara", "camarero"));
+        assertNull(cache.get("es", "caso"));
+        assertNull(cache.get("es", "casa"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final SuggestionCache cache = new SuggestionCache(SuggestionCache.DEFAULT_MAX_SIZE);
+        cache.put("es", "caso", Collections.singletonList("caso"));
+        cache.invalidate();
+        assertNull(cache.get("es", "caso"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnmodifiable() {
+        final SuggestionCache cache = new SuggestionCache(SuggestionCache.DEFAULT_MAX_SIZE);
+        cache.put("es", "caso", Arrays.asList("caso", "casa"));
+        cache.get("es", "caso").add("cosa");
+    }
+}
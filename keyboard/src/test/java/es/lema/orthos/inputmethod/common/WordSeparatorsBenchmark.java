@@ -0,0 +1,56 @@
+package es.lema.orthos.inputmethod.common;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cost of classifying the characters of the text around the cursor with the table of
+ * {@link WordSeparators}, against the pattern [\p{Punct}\s\d] the keyboard matched before.
+ */
+public class WordSeparatorsBenchmark {
+    private static final Pattern SEPARATOR = Pattern.compile("[\\p{Punct}\\s\\d]");
+    private static final String TEXT = "En un lugar de la Mancha, de cuyo nombre no quiero "
+            + "acordarme, no ha mucho tiempo que vivía un hidalgo de los de lanza en astillero, "
+            + "adarga antigua, rocín flaco y galgo corredor. ¿Qué tal? 1605.";
+    private static final int ROUNDS = 20000;
+
+    @Test
+    public void benchmarkSeparators() {
+        final WordSeparators separators = WordSeparators.forLocale("es_ES");
+        long start = 0;
+        int tableCount = 0;
+        for (int round = -ROUNDS / 10; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+                tableCount = 0;
+            }
+            for (int i = 0; i < TEXT.length(); i++) {
+                tableCount += separators.isSeparator(TEXT.charAt(i)) ? 1 : 0;
+            }
+        }
+        report("table", System.nanoTime() - start);
+        int patternCount = 0;
+        for (int round = -ROUNDS / 10; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+                patternCount = 0;
+            }
+            for (int i = 0; i < TEXT.length(); i++) {
+                patternCount += SEPARATOR.matcher(String.valueOf(TEXT.charAt(i))).matches() ? 1 : 0;
+            }
+        }
+        report("pattern", System.nanoTime() - start);
+        // The inverted question mark is the only separator of the text the pattern misses
+        assertEquals(patternCount + ROUNDS, tableCount);
+    }
+
+    private static void report(@Nonnull final String name, final long elapsed) {
+        System.out.println("WordSeparatorsBenchmark: " + name + " "
+                + elapsed * 1000 / ((long) ROUNDS * TEXT.length()) + " ps per character");
+    }
+}
@@ -0,0 +1,87 @@
+package es.lema.orthos.inputmethod.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WordSeparatorsTest {
+    // Separators of the keyboard before the table
+    private static final Pattern SEPARATOR = Pattern.compile("[\\p{Punct}\\s\\d]");
+
+    @Test
+    public void testAsciiMatchesPattern() {
+        for (String locale : new String[] { null, "es_ES", "en_US" }) {
+            final WordSeparators separators = WordSeparators.forLocale(locale);
+            for (char c = 0; c < 0x80; c++) {
+                final boolean expected = SEPARATOR.matcher(String.valueOf(c)).matches();
+                assertEquals(locale + " " + (int) c, expected, separators.isSeparator(c));
+                assertEquals(locale + " " + (int) c, expected, separators.isSeparator((int) c));
+            }
+        }
+    }
+
+    @Test
+    public void testPatternSeparatorsKept() {
+        // Every separator of the pattern still is one, in the whole plane
+        final WordSeparators separators = WordSeparators.forLocale("es_ES");
+        for (int c = 0; c < 0x10000; c++) {
+            if (SEPARATOR.matcher(String.valueOf((char) c)).matches()) {
+                assertTrue(String.valueOf(c), separators.isSeparator((char) c));
+            }
+        }
+    }
+
+    @Test
+    public void testUnicodeSeparators() {
+        final WordSeparators separators = WordSeparators.forLocale("es_ES");
+        for (char c : "¿¡«»“”‘’—–…€×  \u0085".toCharArray()) {
+            assertTrue(Integer.toHexString(c), separators.isSeparator(c));
+        }
+        for (char c : "áéíóúüñÁÉÍÓÚÜÑçß".toCharArray()) {
+            assertFalse(String.valueOf(c), separators.isSeparator(c));
+        }
+        // Supplementary code points, a bold digit and an emoji
+        assertTrue(separators.isSeparator(0x1d7ce));
+        assertFalse(separators.isSeparator(0x1f600));
+    }
+
+    @Test
+    public void testLanguageWordCharacters() {
+        assertFalse(WordSeparators.forLocale("en_GB").isSeparator('’'));
+        assertTrue(WordSeparators.forLocale("en_GB").isSeparator('\''));
+        assertTrue(WordSeparators.forLocale("es_ES").isSeparator('’'));
+        assertSame(WordSeparators.forLocale("en_GB"), WordSeparators.forLocale("en_US"));
+    }
+
+    @Test
+    public void testSplit() {
+        final List<String> words = new ArrayList<String>();
+        WordSeparators.forLocale("es_ES").split("¿Qué tal? Bien, 2 «gracias»…", words);
+        assertEquals(Arrays.asList("Qué", "tal", "Bien", "gracias"), words);
+        words.clear();
+        WordSeparators.forLocale("en_US").split("don’t stop", words);
+        assertEquals(Arrays.asList("don’t", "stop"), words);
+    }
+
+    @Test
+    public void testSplitMatchesPattern() {
+        final String text = "Hola,  mundo! 1234 (esto) es-una_prueba; fin.\tOtra\nlínea";
+        final List<String> expected = new ArrayList<String>();
+        for (String word : SEPARATOR.split(text)) {
+            if (!word.isEmpty()) {
+                expected.add(word);
+            }
+        }
+        final List<String> words = new ArrayList<String>();
+        WordSeparators.forLocale("es_ES").split(text, words);
+        assertEquals(expected, words);
+    }
+}
@@ -0,0 +1,181 @@
+package es.lema.orthos.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CompactWordListTest {
+    private static final List<Word> WORDS = Arrays.asList(
+            new Word("casa", "casa", 1),
+            new Word("casar", "casaré", 2),
+            new Word("casar", "casó", 2),
+            new Word("cosa", "cosa", 1),
+            new Word(null, "más", 0),
+            new Word("😀", "😀", 7),
+            new Word("😁", "😁", 7));
+
+    @Test
+    public void testToWordList() {
+        final WordList words = CompactWordList.encode(WORDS).toWordList();
+        assertEquals(WORDS.size(), words.size());
+        for (int i = 0; i < WORDS.size(); i++) {
+            final Word word = WORDS.get(i);
+            assertEquals(word.getForm(), words.get(i).getForm());
+            assertEquals(word.getLemma() != null ? word.getLemma() : word.getForm(),
+                    words.get(i).getLemma());
+            assertEquals(word.getCategory(), words.get(i).getCategory());
+        }
+    }
+
+    @Test
+    public void testCategories() {
+        final List<Word> words = Arrays.asList(
+                new Word("a", "a", -1),
+                new Word("b", "b", Integer.MIN_VALUE),
+                new Word("c", "c", Integer.MAX_VALUE),
+                new Word("d", "d", 63),
+                new Word("e", "e", -64));
+        final CompactWordList encoded = CompactWordList.encode(words);
+        final WordList decoded =
+                CompactWordList.fromEncoded(encoded.getEncoded()).toWordList();
+        for (int i = 0; i < words.size(); i++) {
+            assertEquals(words.get(i).getCategory(), decoded.get(i).getCategory());
+        }
+        // Count and 4 bytes per word, then the zigzag categories: 5 bytes for the extremes
+        assertEquals(1 + 5 * 4 + (1 + 5 + 5 + 1 + 1), encoded.getEncodedSize());
+    }
+
+    @Test
+    public void testForms() {
+        final CompactWordList words = CompactWordList.encode(WORDS);
+        assertEquals(WORDS.size(), words.size());
+        assertEquals(getForms(WORDS), toList(words.forms()));
+    }
+
+    @Test
+    public void testFromEncoded() {
+        final CompactWordList words = CompactWordList.fromEncoded(
+                CompactWordList.encode(WORDS).getEncoded());
+        assertEquals(getForms(WORDS), toList(words.forms()));
+    }
+
+    @Test
+    public void testEmpty() {
+        final CompactWordList words = CompactWordList.encode(Collections.<Word>emptyList());
+        assertEquals(0, words.size());
+        assertEquals(1, words.getEncodedSize());
+        assertEquals(Collections.<String>emptyList(), toList(words.forms()));
+    }
+
+    @Test
+    public void testSharedPrefixes() {
+        final CompactWordList words = CompactWordList.encode(Arrays.asList(
+                new Word("perro", "perro", 0),
+                new Word("perro", "perros", 0),
+                new Word("perra", "perra", 0)));
+        // Count, then shared prefix, length, suffix, lemma tag and category of every word:
+        // "perros" and "perra" only store their last letter
+        assertEquals(1 + (1 + 1 + 5 + 1 + 1) + (1 + 1 + 1 + 1 + 1) + (1 + 1 + 1 + 1 + 1),
+                words.getEncodedSize());
+        assertEquals(Arrays.asList("perro", "perros", "perra"), toList(words.forms()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNull() {
+        CompactWordList.fromEncoded(null);
+    }
+
+    @Test
+    public void testTruncated() {
+        final byte[] data = CompactWordList.encode(WORDS).getEncoded();
+        for (int length = 0; length < data.length; length++) {
+            assertMalformed(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    public void testBytesLeft() {
+        final byte[] data = CompactWordList.encode(WORDS).getEncoded();
+        assertMalformed(Arrays.copyOf(data, data.length + 1));
+    }
+
+    @Test
+    public void testTooManyWords() {
+        // 2^28 words announced in 4 bytes
+        assertMalformed(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 });
+    }
+
+    @Test
+    public void testVarintTooLong() {
+        assertMalformed(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, 0x01 });
+        // Larger than Integer.MAX_VALUE
+        assertMalformed(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f });
+    }
+
+    @Test
+    public void testStringTooLong() {
+        // One word whose form announces 100 bytes
+        assertMalformed(new byte[] { 1, 0, 100, 'a', 0, 0 });
+    }
+
+    @Test
+    public void testInvalidLemma() {
+        assertMalformed(new byte[] { 1, 0, 1, 'a', 3, 0 });
+        // No previous lemma
+        assertMalformed(new byte[] { 1, 0, 1, 'a', CompactWordList.LEMMA_PREVIOUS, 0 });
+    }
+
+    @Test
+    public void testSharedPrefixWithoutPreviousForm() {
+        assertMalformed(new byte[] { 1, 1, 1, 'a', 0, 0 });
+    }
+
+    @Test
+    public void testSharedPrefixTooLong() {
+        // The second form shares 3 characters with "a"
+        final CompactWordList words = CompactWordList.fromEncoded(
+                new byte[] { 2, 0, 1, 'a', 0, 0, 3, 1, 'b', 0, 0 });
+        try {
+            toList(words.forms());
+            fail("Malformed words decoded");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertMalformed(@Nonnull final byte[] data) {
+        try {
+            CompactWordList.fromEncoded(data);
+            fail("Malformed words accepted: " + Arrays.toString(data));
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Nonnull
+    private static List<String> getForms(@Nonnull final List<Word> words) {
+        final List<String> forms = new ArrayList<String>();
+        for (Word word : words) {
+            forms.add(word.getForm());
+        }
+        return forms;
+    }
+
+    @Nonnull
+    private static List<String> toList(@Nonnull final Iterable<String> forms) {
+        final List<String> list = new ArrayList<String>();
+        for (String form : forms) {
+            list.add(form);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,83 @@
+package es.lema.orthos.service;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cost of reading the results of a prefetch batch back from a {@link ResultBuffer}: the
+ * bounds checks, the copy out of the region and the decoding of the forms, per result.
+ */
+public class SharedResultBenchmark {
+    // Words of a prefetch batch, each with the forms the strip can show
+    private static final int RESULTS = 32;
+    private static final int FORMS = 8;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void benchmarkHeapBuffer() throws IOException {
+        final ResultBuffer buffer = ByteBufferResultBuffer.allocate(64 * 1024);
+        report("heap", read(buffer, write(buffer)));
+    }
+
+    @Test
+    public void benchmarkFileBuffer() throws IOException {
+        final FileResultBuffer buffer =
+                new FileResultBuffer(new File(System.getProperty("java.io.tmpdir")), 64 * 1024);
+        try {
+            report("file", read(buffer, write(buffer)));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Nonnull
+    private static SharedResult write(@Nonnull final ResultBuffer buffer) throws IOException {
+        final SharedResult.Writer writer = new SharedResult.Writer(buffer, RESULTS);
+        for (int i = 0; i < RESULTS; i++) {
+            final List<Word> words = new ArrayList<Word>();
+            for (int j = 0; j < FORMS; j++) {
+                final String form = "palabra" + i + "forma" + j;
+                words.add(new Word("palabra" + i, form, 0));
+            }
+            writer.add(CompactWordList.encode(words));
+        }
+        return writer.finish(null);
+    }
+
+    /*
+     * Nanoseconds per result read and decoded, after a warm up round
+     */
+    private static long read(
+        @Nonnull final ResultBuffer buffer,
+        @Nonnull final SharedResult result) throws IOException {
+        long start = 0;
+        int forms = 0;
+        for (int round = -ROUNDS / 10; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+                forms = 0;
+            }
+            for (int i = 0; i < RESULTS; i++) {
+                for (String form : result.get(buffer, i).forms()) {
+                    forms += form.length() > 0 ? 1 : 0;
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(ROUNDS * RESULTS * FORMS, forms);
+        return elapsed / (ROUNDS * RESULTS);
+    }
+
+    private static void report(@Nonnull final String name, final long nanos) {
+        System.out.println("SharedResultBenchmark: " + name + " " + nanos + " ns per result of "
+                + FORMS + " forms");
+    }
+}
@@ -0,0 +1,131 @@
+package es.lema.orthos.service;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SharedResultTest {
+    private static final List<List<String>> RESULTS = Arrays.asList(
+            Arrays.asList("casa", "caso", "cosa"),
+            Arrays.<String>asList(),
+            Arrays.asList("más", "mas"),
+            Arrays.asList("perro", "perros", "perra", "perras"));
+
+    @Test
+    public void testHeapBuffer() throws IOException {
+        final ResultBuffer buffer = ByteBufferResultBuffer.allocate(1024);
+        final SharedResult result = write(buffer);
+        assertEquals(RESULTS.size(), result.count());
+        for (int i = 0; i < RESULTS.size(); i++) {
+            assertEquals(RESULTS.get(i), getForms(result.get(buffer, i)));
+        }
+    }
+
+    @Test
+    public void testFileBuffer() throws IOException {
+        final FileResultBuffer buffer =
+                new FileResultBuffer(new File(System.getProperty("java.io.tmpdir")), 1024);
+        try {
+            final SharedResult result = write(buffer);
+            for (int i = 0; i < RESULTS.size(); i++) {
+                assertEquals(RESULTS.get(i), getForms(result.get(buffer, i)));
+            }
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testGetOutOfBounds() throws IOException {
+        final ResultBuffer buffer = ByteBufferResultBuffer.allocate(1024);
+        final SharedResult result = write(buffer);
+        assertGetFails(result, buffer, -1);
+        assertGetFails(result, buffer, RESULTS.size());
+        // Results past the end of a smaller region are never allocated
+        final ResultBuffer smaller = ByteBufferResultBuffer.allocate(result.getSize() - 1);
+        assertGetFails(result, smaller, RESULTS.size() - 1);
+    }
+
+    @Test
+    public void testBufferBounds() throws IOException {
+        final ResultBuffer buffer = ByteBufferResultBuffer.allocate(8);
+        final byte[] bytes = { 1, 2, 3, 4 };
+        buffer.write(4, bytes, 0, 4);
+        final byte[] read = new byte[4];
+        buffer.read(4, read, 0, 4);
+        assertArrayEquals(bytes, read);
+        try {
+            buffer.write(5, bytes, 0, 4);
+            fail("Written past the end");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            buffer.read(-1, read, 0, 4);
+            fail("Read before the start");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteTooMuch() throws IOException {
+        final SharedResult.Writer writer =
+                new SharedResult.Writer(ByteBufferResultBuffer.allocate(4), 1);
+        writer.add(encode(RESULTS.get(0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenWithoutRegion() throws IOException {
+        write(ByteBufferResultBuffer.allocate(1024)).open();
+    }
+
+    @Nonnull
+    static SharedResult write(@Nonnull final ResultBuffer buffer) throws IOException {
+        final SharedResult.Writer writer = new SharedResult.Writer(buffer, RESULTS.size());
+        for (List<String> forms : RESULTS) {
+            writer.add(encode(forms));
+        }
+        return writer.finish(null);
+    }
+
+    @Nonnull
+    static CompactWordList encode(@Nonnull final List<String> forms) {
+        final List<Word> words = new ArrayList<Word>();
+        for (String form : forms) {
+            words.add(new Word(form, form, 0));
+        }
+        return CompactWordList.encode(words);
+    }
+
+    @Nonnull
+    static List<String> getForms(@Nonnull final CompactWordList words) {
+        final List<String> forms = new ArrayList<String>();
+        for (String form : words.forms()) {
+            forms.add(form);
+        }
+        return forms;
+    }
+
+    private static void assertGetFails(
+        @Nonnull final SharedResult result,
+        @Nonnull final ResultBuffer buffer,
+        final int index) {
+        try {
+            result.get(buffer, index);
+            fail("Result " + index + " read");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
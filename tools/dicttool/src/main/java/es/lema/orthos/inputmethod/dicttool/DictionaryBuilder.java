@@ -0,0 +1,212 @@
+package es.lema.orthos.inputmethod.dicttool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds the fallback dictionaries of the keyboard, the tries read by FallbackDictionary, from
+ * word lists. A word list has a word per line, the most frequent first, and lines starting
+ * with # are comments. The frequency of a word, 1 to 255, is taken from its rank unless it
+ * follows the word after a tab.
+ *
+ * Usage: DictionaryBuilder &lt;output directory&gt; &lt;word list&gt;... writes the dictionary of
+ * every word list, e.g. es.txt to es.dict.
+ */
+public final class DictionaryBuilder {
+    private static final int MAGIC = 0x4f444157;
+    private static final int VERSION = 1;
+    private static final int ROOT = 8;
+    private static final int TERMINAL = 0x01;
+    private static final int NODE_HEADER_SIZE = 4;
+    private static final int CHILD_SIZE = 6;
+    private static final int MAX_FREQUENCY = 255;
+    private static final int MAX_CHILDREN = 255;
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        boolean terminal;
+        int frequency;
+        int maxFrequency;
+        int offset;
+    }
+
+    private final Node root = new Node();
+    private int wordCount;
+
+    /**
+     * Add a word, keeping the highest frequency of a word added twice
+     */
+    @Nonnull
+    public DictionaryBuilder add(@Nonnull final String word, final int frequency) {
+        if (word.isEmpty()) {
+            throw new IllegalArgumentException("Empty word");
+        }
+        if (frequency < 1 || frequency > MAX_FREQUENCY) {
+            throw new IllegalArgumentException("Invalid frequency " + frequency + " of " + word);
+        }
+        Node node = root;
+        for (int i = 0; i < word.length(); i++) {
+            Node child = node.children.get(word.charAt(i));
+            if (child == null) {
+                child = new Node();
+                node.children.put(word.charAt(i), child);
+            }
+            node = child;
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            wordCount++;
+        }
+        node.frequency = Math.max(node.frequency, frequency);
+        return this;
+    }
+
+    /**
+     * Add the words of a word list
+     */
+    @Nonnull
+    public DictionaryBuilder addWordList(@Nonnull final Reader reader) throws IOException {
+        final Map<String, Integer> words = readWordList(reader);
+        final int total = words.size();
+        int rank = 0;
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            rank++;
+            final int frequency = entry.getValue();
+            add(entry.getKey(), frequency > 0 ? frequency : rankFrequency(rank, total));
+        }
+        return this;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * The dictionary of the words added, the nodes in preorder after the header
+     */
+    @Nonnull
+    public byte[] build() {
+        final List<Node> nodes = new ArrayList<Node>();
+        final int size = layout(root, ROOT, nodes);
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (Node node : nodes) {
+            buffer.position(node.offset);
+            buffer.put((byte) (node.terminal ? TERMINAL : 0));
+            buffer.put((byte) node.frequency);
+            buffer.put((byte) node.maxFrequency);
+            buffer.put((byte) node.children.size());
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                buffer.putChar(child.getKey());
+                buffer.putInt(child.getValue().offset);
+            }
+        }
+        return buffer.array();
+    }
+
+    /*
+     * Give the node and the nodes below it their offsets from the offset given, and compute
+     * their highest frequencies. Returns the offset after them.
+     */
+    private static int layout(
+    @Nonnull final Node node,
+    int offset,
+    @Nonnull final List<Node> nodes) {
+        if (node.children.size() > MAX_CHILDREN) {
+            throw new IllegalArgumentException("Too many characters after a prefix");
+        }
+        node.offset = offset;
+        nodes.add(node);
+        offset += NODE_HEADER_SIZE + CHILD_SIZE * node.children.size();
+        node.maxFrequency = node.frequency;
+        for (Node child : node.children.values()) {
+            offset = layout(child, offset, nodes);
+            node.maxFrequency = Math.max(node.maxFrequency, child.maxFrequency);
+        }
+        return offset;
+    }
+
+    /*
+     * The words of a word list in order, with their frequency or 0 if it is given by the rank
+     */
+    @Nonnull
+    private static Map<String, Integer> readWordList(@Nonnull final Reader reader)
+            throws IOException {
+        final Map<String, Integer> words = new LinkedHashMap<String, Integer>();
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int tab = line.indexOf('\t');
+            final String word = tab >= 0 ? line.substring(0, tab).trim() : line;
+            final int frequency;
+            try {
+                frequency = tab >= 0 ? Integer.parseInt(line.substring(tab + 1).trim()) : 0;
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid frequency in line \"" + line + "\"", e);
+            }
+            if (!words.containsKey(word)) {
+                words.put(word, frequency);
+            }
+        }
+        return words;
+    }
+
+    /*
+     * Frequency of the word of a rank, falling with the logarithm of the rank as the
+     * frequencies of the words of a language do
+     */
+    static int rankFrequency(final int rank, final int total) {
+        final double frequency = MAX_FREQUENCY * (1 - Math.log(rank) / Math.log(total + 1));
+        return Math.max(1, Math.min(MAX_FREQUENCY, (int) Math.round(frequency)));
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryBuilder <output directory> <word list>...");
+            System.exit(1);
+        }
+        final File directory = new File(args[0]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        for (int i = 1; i < args.length; i++) {
+            final File wordList = new File(args[i]);
+            final DictionaryBuilder builder = new DictionaryBuilder();
+            final Reader reader = new InputStreamReader(new FileInputStream(wordList), "UTF-8");
+            try {
+                builder.addWordList(reader);
+            } finally {
+                reader.close();
+            }
+            final String name = wordList.getName().replaceFirst("\\.[^.]*$", "") + ".dict";
+            final File dictionary = new File(directory, name);
+            final byte[] data = builder.build();
+            final OutputStream output = new FileOutputStream(dictionary);
+            try {
+                output.write(data);
+            } finally {
+                output.close();
+            }
+            System.out.println(dictionary + ": " + builder.getWordCount() + " words, "
+                    + data.length + " bytes");
+        }
+    }
+}